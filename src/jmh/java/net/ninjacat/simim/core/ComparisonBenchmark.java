@@ -0,0 +1,66 @@
+package net.ninjacat.simim.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash comparison and DCT used by perceptual hash
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparisonBenchmark {
+
+    private static final int HASHES = 1024;
+    private static final int DCT_SIZE = 32;
+    private static final int PERCEPTUAL_FREQUENCIES = 9;
+
+    private final ImageHash[] hashes = new ImageHash[HASHES];
+    private final Dct dct = new Dct(DCT_SIZE);
+    private final double[] pixels = new double[DCT_SIZE * DCT_SIZE];
+    private final double[] frequencies = new double[DCT_SIZE * DCT_SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < HASHES; i++) {
+            this.hashes[i] = new ImageHash(HashBits.of(random.nextLong(), random.nextLong()));
+        }
+        for (int i = 0; i < this.pixels.length; i++) {
+            this.pixels[i] = random.nextInt(256);
+        }
+    }
+
+    @Benchmark
+    public double similarity() {
+        final int index = this.next++ & (HASHES - 1);
+        return this.hashes[index].similarity(this.hashes[(index + 1) & (HASHES - 1)]);
+    }
+
+    @Benchmark
+    public double[] dctFull() {
+        this.dct.forward(this.pixels, this.frequencies);
+        return this.frequencies;
+    }
+
+    @Benchmark
+    public double[] dctPerceptualHashFrequencies() {
+        this.dct.forward(this.pixels, this.frequencies, PERCEPTUAL_FREQUENCIES);
+        return this.frequencies;
+    }
+}
@@ -0,0 +1,60 @@
+package net.ninjacat.simim.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of large JPEG files at reduced resolution with {@link ImageDecoder}, compared with decoding all pixels
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    /**
+     * Size of the longer side of images decoded by the scanner
+     */
+    private static final int TARGET_SIZE = 320;
+
+    /**
+     * Width of a 12 and a 24 megapixel camera frame
+     */
+    @Param({"4000", "6000"})
+    public int size;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        this.encoded = SyntheticData.jpeg(SyntheticData.image(this.size, this.size * 2 / 3, this.size));
+    }
+
+    @Benchmark
+    public BufferedImage subsampledDecode() throws IOException {
+        return ImageDecoder.decode(ByteBuffer.wrap(this.encoded), TARGET_SIZE);
+    }
+
+    @Benchmark
+    public BufferedImage fullDecode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(this.encoded));
+    }
+}
@@ -0,0 +1,45 @@
+package net.ninjacat.simim.core;
+
+import net.ninjacat.simim.app.DuplicateFinder;
+import net.ninjacat.simim.app.Duplicates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end duplicate search over synthetic hash sets, where every tenth image is a near duplicate of another one
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DuplicateFinderBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int images;
+
+    private List<SimImage> hashedImages;
+
+    @Setup
+    public void setUp() {
+        this.hashedImages = SyntheticData.hashedImages(this.images, this.images);
+    }
+
+    @Benchmark
+    public List<Duplicates> findDuplicates() {
+        return DuplicateFinder.findDuplicates(this.hashedImages);
+    }
+}
@@ -0,0 +1,51 @@
+package net.ninjacat.simim.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature generation of images of different sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    /**
+     * Thumbnail-sized image, as decoded by the scanner, and a full camera frame
+     */
+    @Param({"320", "4000"})
+    public int size;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setUp() {
+        this.image = SyntheticData.image(this.size, this.size * 3 / 4, this.size);
+    }
+
+    @Benchmark
+    public HashBits differenceHash() {
+        return HashAlgorithm.DHash.signature(this.image);
+    }
+
+    @Benchmark
+    public HashBits perceptualHash() {
+        return HashAlgorithm.PHash.signature(this.image);
+    }
+}
@@ -0,0 +1,81 @@
+package net.ninjacat.simim.core;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database inserts and hash loading against a temporary in-memory HSQLDB prefilled with synthetic images
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageDatabaseBenchmark {
+
+    private static final int INSERT_BATCH = 1000;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private Connection connection;
+    private ImageDatabase database;
+    private SimImage image;
+
+    @Setup
+    public void setUp() throws SQLException {
+        final String url = "jdbc:hsqldb:mem:benchmark" + System.nanoTime();
+        this.connection = DriverManager.getConnection(url, "SA", "");
+        final Flyway flyway = new Flyway();
+        flyway.setDataSource(url, "SA", "");
+        this.database = new ImageDatabase(this.connection, flyway);
+        final List<SimImage> images = SyntheticData.hashedImages(this.rows, this.rows);
+        for (int i = 0; i < images.size(); i += INSERT_BATCH) {
+            this.database.insertImages(images.subList(i, Math.min(images.size(), i + INSERT_BATCH)), false);
+        }
+        this.image = SyntheticData.simImage(SyntheticData.png(SyntheticData.image(1024, 768, 1)));
+        this.image.getThumbnailBlob();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        this.connection.createStatement().execute("SHUTDOWN");
+    }
+
+    @Benchmark
+    public SimImage insertImage() {
+        this.database.insertImage(this.image);
+        return this.image;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Collection<ImageHash> loadHashes() {
+        return this.database.loadHashes();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public HashArena loadHashArena() {
+        return this.database.loadHashArena();
+    }
+}
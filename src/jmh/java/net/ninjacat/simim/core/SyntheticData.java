@@ -0,0 +1,131 @@
+package net.ninjacat.simim.core;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generates images and hashes for benchmarks, so that benchmarks do not depend on files
+ */
+final class SyntheticData {
+
+    private static final int SHAPES = 24;
+    private static final int DUPLICATE_EVERY = 10;
+    private static final int MAX_FLIPPED_BITS = 4;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Creates photo-like image: smooth background with random shapes and some noise
+     */
+    static BufferedImage image(final int width, final int height, final long seed) {
+        final Random random = new Random(seed);
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(new java.awt.GradientPaint(0, 0, new Color(random.nextInt()),
+                width, height, new Color(random.nextInt())));
+        graphics.fillRect(0, 0, width, height);
+        for (int i = 0; i < SHAPES; i++) {
+            graphics.setColor(new Color(random.nextInt(), true));
+            final int x = random.nextInt(width);
+            final int y = random.nextInt(height);
+            final int w = 1 + random.nextInt(Math.max(1, width / 3));
+            final int h = 1 + random.nextInt(Math.max(1, height / 3));
+            if (random.nextBoolean()) {
+                graphics.fillOval(x, y, w, h);
+            } else {
+                graphics.fillRect(x, y, w, h);
+            }
+        }
+        graphics.dispose();
+        for (int y = 0; y < height; y += 3) {
+            for (int x = 0; x < width; x += 3) {
+                image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x080808));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return Image encoded as PNG
+     */
+    static byte[] png(final BufferedImage image) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Image encoded as JPEG with default quality
+     */
+    static byte[] jpeg(final BufferedImage image) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes image the same way as it is decoded when scanning files
+     */
+    static SimImage simImage(final byte[] encoded) {
+        try {
+            return new SimImage(new ByteArrayInputStream(encoded));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates images with random difference and perceptual hashes, as if they were loaded from database. Every
+     * {@value #DUPLICATE_EVERY}th image is a near duplicate of a random earlier one, with a few bits of each hash
+     * flipped
+     *
+     * @param count Number of images
+     * @param seed  Random seed
+     * @return Images without thumbnails
+     */
+    static List<SimImage> hashedImages(final int count, final long seed) {
+        final Random random = new Random(seed);
+        final long[][] words = new long[count][];
+        final List<SimImage> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && i % DUPLICATE_EVERY == 0) {
+                words[i] = words[random.nextInt(i)].clone();
+                final int flips = 1 + random.nextInt(MAX_FLIPPED_BITS);
+                for (int flip = 0; flip < flips; flip++) {
+                    words[i][random.nextInt(words[i].length)] ^= 1L << random.nextInt(Long.SIZE);
+                }
+            } else {
+                words[i] = new long[]{random.nextLong(), random.nextLong(), random.nextLong()};
+            }
+            images.add(new SimImage(Paths.get("/synthetic", i + ".jpg"),
+                    Arrays.asList(new ImageHash(HashBits.of(words[i][0], words[i][1])),
+                            new ImageHash(HashAlgorithm.PHash, HashBits.of(words[i][2]))),
+                    FileStamp.UNKNOWN, () -> CompletableFuture.completedFuture(Optional.empty())));
+        }
+        return images;
+    }
+}
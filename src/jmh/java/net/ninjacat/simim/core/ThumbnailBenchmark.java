@@ -0,0 +1,52 @@
+package net.ninjacat.simim.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JPEG encoding of thumbnails before they are stored. Encoded thumbnail is cached by the image, so every invocation
+ * gets a new image with already generated thumbnail
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailBenchmark {
+
+    @Param({"320", "4000"})
+    public int size;
+
+    private byte[] encoded;
+    private SimImage image;
+
+    @Setup
+    public void setUp() {
+        this.encoded = SyntheticData.png(SyntheticData.image(this.size, this.size * 3 / 4, this.size));
+    }
+
+    @Setup(Level.Invocation)
+    public void decode() {
+        this.image = SyntheticData.simImage(this.encoded);
+        this.image.getThumbnail();
+    }
+
+    @Benchmark
+    public InputStream thumbnailBlob() {
+        return this.image.getThumbnailBlob();
+    }
+}
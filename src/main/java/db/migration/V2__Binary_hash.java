@@ -0,0 +1,90 @@
+package db.migration;
+
+import net.ninjacat.simim.core.HashBits;
+import org.flywaydb.core.api.migration.jdbc.JdbcMigration;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Moves image hashes from decimal strings to a pair of BIGINT columns holding 128-bit DHash words.
+ * <p>
+ * Legacy strings are decimal representation of {@code new BigInteger(bitSet.toByteArray())}, which loses leading
+ * zero bytes of the little-endian bit set. Original bits are restored by finding the number of stripped zero bytes
+ * which puts all set bits into the positions DHash could have produced.
+ */
+public class V2__Binary_hash implements JdbcMigration {
+
+    private static final int HASH_SIZE = 128;
+    private static final int MAX_LEGACY_BYTES = HASH_SIZE / Byte.SIZE + 1;
+    private static final int FIRST_GRADIENT_BIT = 9;
+    private static final int LAST_HORIZONTAL_BIT = 64;
+
+    @Override
+    public void migrate(final Connection connection) throws Exception {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE image ADD COLUMN hash_lo BIGINT");
+            statement.execute("ALTER TABLE image ADD COLUMN hash_hi BIGINT");
+        }
+        try (final PreparedStatement select = connection.prepareStatement("select distinct(hash) from image where hash is not null");
+             final PreparedStatement update = connection.prepareStatement("update image set hash_lo = ?, hash_hi = ? where hash = ?");
+             final ResultSet resultSet = select.executeQuery()) {
+            boolean hasUpdates = false;
+            while (resultSet.next()) {
+                final String legacy = resultSet.getString(1);
+                final HashBits bits = decodeLegacy(legacy);
+                update.setLong(1, bits.word(0));
+                update.setLong(2, bits.word(1));
+                update.setString(3, legacy);
+                update.addBatch();
+                hasUpdates = true;
+            }
+            if (hasUpdates) {
+                update.executeBatch();
+            }
+        }
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX HASH_IDX IF EXISTS");
+            statement.execute("ALTER TABLE image DROP COLUMN hash");
+            statement.execute("CREATE INDEX HASH_IDX ON image(hash_lo, hash_hi)");
+        }
+    }
+
+    static HashBits decodeLegacy(final String legacy) {
+        final byte[] value = new BigInteger(legacy).toByteArray();
+        int start = 0;
+        while (start < value.length && value[start] == 0) {
+            start++;
+        }
+        final byte[] significant = Arrays.copyOfRange(value, start, value.length);
+        for (int stripped = MAX_LEGACY_BYTES - significant.length; stripped >= 0; stripped--) {
+            final byte[] bytes = new byte[stripped + significant.length];
+            System.arraycopy(significant, 0, bytes, stripped, significant.length);
+            final BitSet bits = BitSet.valueOf(bytes);
+            if (isDHashLayout(bits)) {
+                return HashBits.fromBitSet(bits, HASH_SIZE);
+            }
+        }
+        return HashBits.fromBitSet(BitSet.valueOf(value), HASH_SIZE);
+    }
+
+    /**
+     * DHash sets horizontal gradient bits 9..64 and vertical gradient bits at even positions up to 128
+     */
+    private static boolean isDHashLayout(final BitSet bits) {
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+            if (bit < FIRST_GRADIENT_BIT || bit > HASH_SIZE) {
+                return false;
+            }
+            if (bit > LAST_HORIZONTAL_BIT && bit % 2 != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,45 +1,86 @@
 package net.ninjacat.simim.app;
 
+import net.ninjacat.simim.core.MetricsReporter;
+import net.ninjacat.simim.core.ReaderMode;
 import net.ninjacat.simim.di.DaggerSimimComponent;
+import net.ninjacat.simim.di.DatabaseModule;
+import net.ninjacat.simim.di.SimimComponent;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 public final class Console {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Console.class);
+    private static final String READER_MODE = "reader-mode";
 
     private Console() {
     }
 
     public static void main(final String[] argv) {
-        final Path path = Paths.get(argv[0]);
+        final Options options = createOptions();
+        final CommandLine commandLine;
+        final ReaderMode readerMode;
+        try {
+            commandLine = new DefaultParser().parse(options, argv);
+            readerMode = parseReaderMode(commandLine.getOptionValue(READER_MODE, ReaderMode.PLATFORM.name()));
+            if (commandLine.getArgs().length != 1) {
+                throw new ParseException("Path to scan is required");
+            }
+        } catch (final ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(Application.NAME + " [options] <path>", options);
+            return;
+        }
+        final Path path = Paths.get(commandLine.getArgs()[0]);
 
-        final DuplicateFinder duplicateFinder = DaggerSimimComponent.create().duplicateFinder();
+        final SimimComponent component = DaggerSimimComponent.builder()
+                .databaseModule(new DatabaseModule(readerMode))
+                .build();
+        final DuplicateFinder duplicateFinder = component.duplicateFinder();
 
-        duplicateFinder.invalidateDatabase();
-
-//        final List<SimImage> images = duplicateFinder.readInMemory(Paths.get("/home/raven/Pictures"), null);
-        final List<Duplicates> duplicates = duplicateFinder.findDuplicates();
-
-        duplicates.forEach(it -> LOGGER.info("Duplicates:\n {}\n\n", it));
-
-//        final List<SimImage> duplicates = duplicateFinder.read(
-//                path,
-//                p -> LOGGER.info(p + "\r"));
-//
-//        LOGGER.debug("Sucked in {} images", duplicates.size());
+        try (final MetricsReporter ignored = component.metricsReporter()) {
+            duplicateFinder.invalidateDatabase();
+            final long stored = duplicateFinder.readIntoDb(path, p -> LOGGER.debug("Read {}", p));
+            LOGGER.info("Stored {} new images from {}", stored, path);
+            duplicateFinder.streamDuplicates()
+                    .forEach(it -> LOGGER.info("Duplicates:\n {}\n\n", it));
+        }
+    }
 
+    private static Options createOptions() {
+        return new Options().addOption(Option.builder("r")
+                .longOpt(READER_MODE)
+                .hasArg()
+                .argName("mode")
+                .desc("How files are read: " + modeNames() + ", default is platform. Virtual mode reads thousands " +
+                        "of files at once, which helps on network storage. It uses virtual threads on Java 21 " +
+                        "and a bounded thread pool on older versions")
+                .build());
+    }
 
+    private static ReaderMode parseReaderMode(final String value) throws ParseException {
+        try {
+            return ReaderMode.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParseException("Unknown reader mode " + value + ", expected one of " + modeNames());
+        }
+    }
 
-//        duplicates.forEach(list -> {
-//            System.out.println(list.iterator().next().getSignature());
-//            list.forEach(it -> System.out.println(it.getPath()));
-//            System.out.println();
-//
-//        });
+    private static String modeNames() {
+        return Arrays.stream(ReaderMode.values())
+                .map(mode -> mode.name().toLowerCase(Locale.ROOT))
+                .collect(Collectors.joining(", "));
     }
 }
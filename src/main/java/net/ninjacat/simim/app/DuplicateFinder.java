@@ -4,19 +4,36 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Multimaps;
+import net.ninjacat.simim.core.BatchImageWriter;
+import net.ninjacat.simim.core.CascadedMatcher;
+import net.ninjacat.simim.core.FileStamp;
+import net.ninjacat.simim.core.HashArena;
+import net.ninjacat.simim.core.HashAlgorithm;
+import net.ninjacat.simim.core.HashClusterer;
+import net.ninjacat.simim.core.HashMatcher;
 import net.ninjacat.simim.core.ImageDatabase;
 import net.ninjacat.simim.core.ImageHash;
+import net.ninjacat.simim.core.ImageProcessingException;
+import net.ninjacat.simim.core.KnownFiles;
+import net.ninjacat.simim.core.MissingFiles;
+import net.ninjacat.simim.core.ReaderMode;
+import net.ninjacat.simim.core.ScanListener;
+import net.ninjacat.simim.core.ScanPipeline;
 import net.ninjacat.simim.core.SimImage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -26,13 +43,36 @@ import java.util.stream.Stream;
 public class DuplicateFinder {
 
     private static final double SIMILARITY_THRESHOLD = 0.9;
+    private static final int MAX_DISTANCE = ImageHash.maxDistance(SIMILARITY_THRESHOLD);
+    private static final double PERCEPTUAL_SIMILARITY_THRESHOLD = 0.85;
+    private static final int MAX_PERCEPTUAL_DISTANCE =
+            ImageHash.maxDistance(HashAlgorithm.PHash, PERCEPTUAL_SIMILARITY_THRESHOLD);
     private static final Logger LOGGER = LoggerFactory.getLogger("simim");
+    private static final HashClusterer CLUSTERER = new HashClusterer();
 
     private final ImageDatabase imageDatabase;
+    private final int insertBatchSize;
+    private final Duration insertFlushInterval;
+    private final boolean storeThumbnails;
+    private final ReaderMode readerMode;
+    private final int readerThreads;
+    private final int decoderThreads;
 
     @Inject
-    public DuplicateFinder(final ImageDatabase imageDatabase) {
+    public DuplicateFinder(final ImageDatabase imageDatabase,
+                           @Named("insertBatchSize") final int insertBatchSize,
+                           @Named("insertFlushInterval") final Duration insertFlushInterval,
+                           @Named("storeThumbnails") final boolean storeThumbnails,
+                           @Named("readerMode") final ReaderMode readerMode,
+                           @Named("readerThreads") final int readerThreads,
+                           @Named("decoderThreads") final int decoderThreads) {
         this.imageDatabase = imageDatabase;
+        this.insertBatchSize = insertBatchSize;
+        this.insertFlushInterval = insertFlushInterval;
+        this.storeThumbnails = storeThumbnails;
+        this.readerMode = readerMode;
+        this.readerThreads = readerThreads;
+        this.decoderThreads = decoderThreads;
     }
 
     /**
@@ -43,132 +83,222 @@ public class DuplicateFinder {
      * @return List of collections of duplicate images
      */
     public static List<Collection<SimImage>> scan(final Path root, final Consumer<Path> callback) {
-        try {
-            final ListMultimap<ImageHash, SimImage> images = Files.walk(root)
-                    .filter(DuplicateFinder::isImageFile)
-                    .map(path -> getSimImageWithCallback(callback, path))
-                    .collect(Multimaps.toMultimap(SimImage::getSignature, img -> img, MultimapBuilder.hashKeys().arrayListValues()::build));
-            return images.asMap().entrySet().stream()
-                    .filter(entry -> entry.getValue().size() > 1)
-                    .map(Map.Entry::getValue)
-                    .collect(Collectors.toList());
-
-        } catch (final IOException e) {
-            LOGGER.error("Failed to scan " + root, e);
-        }
-        return ImmutableList.of();
+        final ListMultimap<ImageHash, SimImage> images = readInMemory(root, callback).stream()
+                .collect(Multimaps.toMultimap(SimImage::getSignature, img -> img, MultimapBuilder.hashKeys().arrayListValues()::build));
+        return images.asMap().entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
     }
 
+    /**
+     * Removes images whose files no longer exist from the database. Files are checked concurrently by reader threads,
+     * see {@link MissingFiles}, and missing images are deleted in one transaction
+     */
     public void invalidateDatabase() {
-        this.imageDatabase.loadPaths().stream()
-                .filter(path -> !Files.exists(path))
-                .peek(path -> LOGGER.debug("Path {} does not exist, removing from database", path))
-                .forEach(this.imageDatabase::delete);
+        final Collection<Path> paths = this.imageDatabase.loadPaths();
+        final List<Path> missing = MissingFiles.find(paths, this.readerMode, this.readerThreads);
+        missing.forEach(path -> LOGGER.debug("Path {} does not exist, removing from database", path));
+        final int deleted = this.imageDatabase.deleteAll(missing);
+        LOGGER.debug("Checked {} paths, removed {} images", paths.size(), deleted);
     }
 
     /**
-     * Finds duplicates in a database
+     * Finds duplicates in a database. Images are grouped with all images similar to any image in the group, see
+     * {@link HashClusterer}
      *
      * @return List of collections of duplicate images
      */
     public List<Duplicates> findDuplicates() {
-        final Collection<ImageHash> hashes = this.imageDatabase.loadHashes();
+        return streamDuplicates().collect(ImmutableList.toImmutableList());
+    }
 
-        final Set<ImageHash> processed = ConcurrentHashMap.newKeySet();
+    /**
+     * Finds duplicates in a database, grouping them in the same way as {@link #findDuplicates()}, but loads images of
+     * each group only when the group is consumed. Until then only hashes and ids of images are kept in memory, and
+     * thumbnails are not loaded until they are requested from the images
+     *
+     * @return Lazy stream of groups of duplicate images
+     */
+    public Stream<Duplicates> streamDuplicates() {
+        final HashArena arena = this.imageDatabase.loadHashArena();
+        return CLUSTERER.cluster(arena, createMatcher(arena)).stream()
+                .map(cluster -> loadDuplicates(arena, cluster))
+                .filter(duplicates -> duplicates.getImages().size() > 1);
+    }
 
-        final ImmutableList.Builder<Duplicates> resultBuilder = ImmutableList.builder();
+    /**
+     * Creates matcher which finds candidates by perceptual hash and confirms them by difference hash, so that images
+     * must look similar to both algorithms
+     */
+    private static HashMatcher createMatcher(final HashArena arena) {
+        return new CascadedMatcher(arena, HashAlgorithm.PHash, MAX_PERCEPTUAL_DISTANCE,
+                HashAlgorithm.DHash, MAX_DISTANCE);
+    }
 
-        for (final ImageHash first : hashes) {
-            if (!processed.contains(first)) {
-                final List<SimImage> images =
-                        Stream.concat(this.imageDatabase.loadByHash(first).stream(),
-                                hashes.stream()
-                                        .filter(h -> !processed.contains(h) && h != first)
-                                        .filter(h -> first.similarity(h) > SIMILARITY_THRESHOLD)
-                                        .flatMap(h -> this.imageDatabase.loadByHash(h).stream()))
-                                .collect(Collectors.toList());
-                processed.addAll(images.stream().map(SimImage::getSignature).collect(Collectors.toSet()));
-                if (images.size() > 1) {
-                    resultBuilder.add(new Duplicates(first, images));
-                }
-            }
-        }
-        return resultBuilder.build();
+    /**
+     * Loads images of the clustered slots by their ids, so that a group has exactly the images which were matched
+     */
+    private Duplicates loadDuplicates(final HashArena arena, final int[] cluster) {
+        final long[] ids = Arrays.stream(cluster).mapToLong(arena::id).toArray();
+        return new Duplicates(arena.hash(cluster[0]), this.imageDatabase.loadByIds(ids));
     }
 
+    /**
+     * Finds duplicates among images loaded into memory, grouping them in the same way as {@link #findDuplicates()}
+     *
+     * @param images Images to search
+     * @return List of collections of duplicate images, in the order of their first images
+     */
     public static List<Duplicates> findDuplicates(final List<SimImage> images) {
-        final Map<ImageHash, SimImage> imMap = images.stream().collect(Collectors.toMap(SimImage::getSignature, it -> it));
-
-        final Set<ImageHash> processed = ConcurrentHashMap.newKeySet();
+        final HashArena arena = new HashArena(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            arena.add(i, images.get(i).getSignatures());
+        }
 
         final ImmutableList.Builder<Duplicates> resultBuilder = ImmutableList.builder();
 
-        for (final ImageHash first : imMap.keySet()) {
-            if (!processed.contains(first)) {
-                final List<SimImage> duplicateImages =
-                        Stream.concat(Stream.of(imMap.get(first)),
-                                imMap.keySet().stream()
-                                        .filter(h -> !processed.contains(h) && h != first)
-                                        .filter(h -> first.similarity(h) > SIMILARITY_THRESHOLD)
-                                        .map(imMap::get))
-                                .collect(Collectors.toList());
-                processed.addAll(duplicateImages.stream().map(SimImage::getSignature).collect(Collectors.toSet()));
-                if (duplicateImages.size() > 1) {
-                    resultBuilder.add(new Duplicates(first, duplicateImages));
-                }
-            }
+        for (final int[] cluster : CLUSTERER.cluster(arena, createMatcher(arena))) {
+            final List<SimImage> duplicateImages = Arrays.stream(cluster)
+                    .mapToObj(slot -> images.get((int) arena.id(slot)))
+                    .collect(Collectors.toList());
+            resultBuilder.add(new Duplicates(duplicateImages.get(0).getSignature(), duplicateImages));
         }
         return resultBuilder.build();
     }
 
     /**
-     * Scan directory and store all images to database
+     * Scan directory and load all images into memory
      *
      * @param root     Root folder to scan
      * @param callback Optional progress callback
-     * @return List of collections of duplicate images
+     * @return List of loaded images
      */
     public static List<SimImage> readInMemory(final Path root, final Consumer<Path> callback) {
-        try {
-            return Files.walk(root)
-                    .filter(DuplicateFinder::isImageFile)               // only images
-                    .map(path -> getSimImageWithCallback(callback, path))
-                    .collect(Collectors.toList());
+        return ScanPipeline.withDefaults(ScanListener.of(callback)).read(root, DuplicateFinder::currentStamp);
+    }
 
+    /**
+     * Incrementally scans directory and stores new images to database. Paths of images already in the database are
+     * loaded once before the scan, so known files are skipped without querying database for each of them
+     *
+     * @param root     Root folder to scan
+     * @param callback Optional progress callback
+     * @return Number of newly stored images
+     */
+    public long readIntoDb(final Path root, final Consumer<Path> callback) {
+        return readIntoDb(root, ScanListener.of(callback));
+    }
 
-        } catch (final IOException e) {
-            LOGGER.error("Failed to scan " + root, e);
+    /**
+     * Incrementally scans directory and stores new images to database, reporting progress of each scan stage
+     *
+     * @param root     Root folder to scan
+     * @param listener Progress listener
+     * @return Number of newly stored images
+     */
+    public long readIntoDb(final Path root, final ScanListener listener) {
+        final KnownFiles knownFiles = this.imageDatabase.loadKnownFiles();
+        LOGGER.debug("Loaded {} known files", knownFiles.size());
+        try (final BatchImageWriter writer = createWriter(false)) {
+            return createPipeline(listener).store(root,
+                    path -> knownFiles.contains(path) ? Optional.empty() : currentStamp(path), writer);
         }
-        return ImmutableList.of();
     }
 
-    public List<SimImage> readIntoDb(final Path root, final Consumer<Path> callback) {
-        try {
-            return Files.walk(root).parallel()
-                    .filter(DuplicateFinder::isImageFile)               // only images
-                    .filter(path -> !this.imageDatabase.exists(path))   // skip known images
-                    .map(path -> getSimImageWithCallback(callback, path))
-                    .peek(this.imageDatabase::insertImage)
-                    .collect(Collectors.toList());
-
+    /**
+     * Re-indexes directory, re-hashing only images which changed since they were stored.
+     * <p>
+     * Files with unchanged size and modification time are skipped. For other files content fingerprint is
+     * calculated: files which were only touched get their stamp updated, edited files are re-hashed, and new files
+     * whose fingerprint matches a stored file which no longer exists are treated as moved, so their database rows
+     * are re-pointed without decoding the image again. Images stored without perceptual hash are re-hashed from their
+     * files even if they did not change. Stored rows of re-hashed images are replaced in the same transaction which
+     * inserts the new rows, so an image which fails to decode keeps its old row.
+     *
+     * @param root     Root folder to scan
+     * @param callback Optional progress callback, called for images which are re-hashed
+     * @return Number of new and re-hashed images
+     */
+    public long reindex(final Path root, final Consumer<Path> callback) {
+        return reindex(root, ScanListener.of(callback));
+    }
 
-        } catch (final IOException e) {
-            LOGGER.error("Failed to scan " + root, e);
+    /**
+     * Re-indexes directory, re-hashing only images which changed since they were stored, see
+     * {@link #reindex(Path, Consumer)}
+     *
+     * @param root     Root folder to scan
+     * @param listener Progress listener
+     * @return Number of new and re-hashed images
+     */
+    public long reindex(final Path root, final ScanListener listener) {
+        final KnownFiles knownFiles = this.imageDatabase.loadKnownFiles();
+        final Set<Path> movedFrom = ConcurrentHashMap.newKeySet();
+        try (final BatchImageWriter writer = createWriter(true)) {
+            return createPipeline(listener).store(root, path -> reindexImage(knownFiles, movedFrom, path), writer);
         }
-        return ImmutableList.of();
     }
 
-    private static SimImage getSimImageWithCallback(final Consumer<Path> callback, final Path path) {
-        if (callback != null) {
-            callback.accept(path);
-        }
-        return SimImage.fromPath(path);
+    /**
+     * @param replaceExisting Whether re-hashed images should replace their stored rows
+     */
+    private BatchImageWriter createWriter(final boolean replaceExisting) {
+        return new BatchImageWriter(this.imageDatabase, this.insertBatchSize, this.insertFlushInterval,
+                this.storeThumbnails, replaceExisting);
     }
 
+    private ScanPipeline createPipeline(final ScanListener listener) {
+        return new ScanPipeline(this.readerMode, this.readerThreads, this.decoderThreads,
+                ScanPipeline.DEFAULT_PROGRESS_INTERVAL, listener);
+    }
 
-    private static boolean isImageFile(final Path path) {
-        final String s = path.toString().toLowerCase();
-        return s.endsWith(".jpg") || s.endsWith(".jpeg") || s.endsWith(".png") || s.endsWith(".gif");
+    /**
+     * Decides whether image has to be re-hashed, updating database for touched and moved files
+     *
+     * @return Stamp of the image if it has to be re-hashed. Fingerprint of images which are only missing perceptual
+     * hash is calculated by the pipeline from the content it reads
+     */
+    private Optional<FileStamp> reindexImage(final KnownFiles knownFiles, final Set<Path> movedFrom,
+                                             final Path path) {
+        try {
+            final FileStamp current = FileStamp.of(path);
+            final Optional<FileStamp> stored = knownFiles.getStamp(path);
+            if (stored.isPresent() && knownFiles.lacksPerceptualHash(path)) {
+                LOGGER.debug("Image {} has no perceptual hash, re-hashing", path);
+                return Optional.of(current);
+            }
+            if (stored.isPresent() && stored.get().hasSameAttributes(current)) {
+                return Optional.empty();
+            }
+            final FileStamp stamp = current.withFingerprint(path);
+            if (stored.isPresent()) {
+                if (stored.get().getFingerprint().equals(stamp.getFingerprint())) {
+                    this.imageDatabase.updateFileStamp(path, stamp);
+                    return Optional.empty();
+                }
+                LOGGER.debug("Image {} has changed, re-hashing", path);
+            } else {
+                final Optional<Path> original = knownFiles.findByFingerprint(stamp.getFingerprint().getAsLong())
+                        .stream()
+                        .filter(known -> !Files.exists(known) && movedFrom.add(known))
+                        .findFirst();
+                if (original.isPresent() && this.imageDatabase.moveImage(original.get(), path, stamp)) {
+                    LOGGER.debug("Image {} was moved to {}", original.get(), path);
+                    return Optional.empty();
+                }
+            }
+            return Optional.of(stamp);
+        } catch (final IOException e) {
+            throw new ImageProcessingException("Failed to re-index image " + path, e);
+        }
     }
 
+    private static Optional<FileStamp> currentStamp(final Path path) {
+        try {
+            return Optional.of(FileStamp.of(path));
+        } catch (final IOException e) {
+            throw new ImageProcessingException("Failed to read image file " + path, e);
+        }
+    }
 }
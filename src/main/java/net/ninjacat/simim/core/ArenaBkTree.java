@@ -0,0 +1,153 @@
+package net.ninjacat.simim.core;
+
+import java.util.Arrays;
+
+/**
+ * Burkhard-Keller tree over slots of a {@link HashArena}, indexing hashes calculated by one algorithm.
+ * <p>
+ * Allows to find all slots within given number of bits from a query hash without comparing the query to every slot.
+ * Nodes are not objects: for every slot the tree stores its first child, next sibling and distance to the parent in
+ * {@code int} arrays, and distances are calculated from arena words. Slots with equal hashes are all indexed, so that
+ * search returns every image with a matching hash.
+ * Slots which do not have hash of the indexed algorithm are not indexed.
+ */
+public final class ArenaBkTree {
+
+    private static final int NONE = -1;
+
+    private final HashArena arena;
+    private final HashAlgorithm algorithm;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] parentDistance;
+    private int root = NONE;
+    private int size;
+
+    private ArenaBkTree(final HashArena arena, final HashAlgorithm algorithm) {
+        this.arena = arena;
+        this.algorithm = algorithm;
+        this.firstChild = new int[arena.size()];
+        this.nextSibling = new int[arena.size()];
+        this.parentDistance = new int[arena.size()];
+        Arrays.fill(this.firstChild, NONE);
+        Arrays.fill(this.nextSibling, NONE);
+    }
+
+    /**
+     * Builds an index of difference hashes of all slots in the arena. Slots added to the arena afterwards are not
+     * indexed
+     *
+     * @param arena Hashes to index
+     * @return new BK-tree
+     */
+    public static ArenaBkTree of(final HashArena arena) {
+        return of(arena, HashAlgorithm.DHash);
+    }
+
+    /**
+     * Builds an index of hashes calculated by given algorithm. Slots added to the arena afterwards are not indexed
+     *
+     * @param arena     Hashes to index
+     * @param algorithm Algorithm of indexed hashes
+     * @return new BK-tree
+     */
+    public static ArenaBkTree of(final HashArena arena, final HashAlgorithm algorithm) {
+        final ArenaBkTree tree = new ArenaBkTree(arena, algorithm);
+        for (int slot = 0; slot < arena.size(); slot++) {
+            if (arena.has(slot, algorithm)) {
+                tree.add(slot);
+            }
+        }
+        return tree;
+    }
+
+    private void add(final int slot) {
+        this.size++;
+        if (this.root == NONE) {
+            this.root = slot;
+            return;
+        }
+        int node = this.root;
+        while (true) {
+            final int distance = this.arena.distance(this.algorithm, node, slot);
+            final int child = findChild(node, distance);
+            if (child == NONE) {
+                this.parentDistance[slot] = distance;
+                this.nextSibling[slot] = this.firstChild[node];
+                this.firstChild[node] = slot;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    private int findChild(final int node, final int distance) {
+        for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+            if (this.parentDistance[child] == distance) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Finds all slots whose hashes differ from the hash in the query slot by at most {@code maxDistance} bits
+     *
+     * @param query       Query slot, must have hash of the indexed algorithm
+     * @param maxDistance Maximum Hamming distance, inclusive
+     * @return Matching slots in ascending order, including the query slot
+     */
+    public int[] search(final int query, final int maxDistance) {
+        if (this.root == NONE) {
+            return new int[0];
+        }
+        int[] found = new int[16];
+        int foundCount = 0;
+        int[] candidates = new int[64];
+        int candidateCount = 0;
+        candidates[candidateCount++] = this.root;
+        while (candidateCount > 0) {
+            final int node = candidates[--candidateCount];
+            final int distance = this.arena.distance(this.algorithm, node, query);
+            if (distance <= maxDistance) {
+                if (foundCount == found.length) {
+                    found = Arrays.copyOf(found, foundCount * 2);
+                }
+                found[foundCount++] = node;
+            }
+            // triangle inequality: only subtrees at distance [d - k, d + k] from this node may contain matches
+            for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+                if (Math.abs(this.parentDistance[child] - distance) <= maxDistance) {
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                    }
+                    candidates[candidateCount++] = child;
+                }
+            }
+        }
+        final int[] result = Arrays.copyOf(found, foundCount);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return Arena indexed by this tree
+     */
+    public HashArena getArena() {
+        return this.arena;
+    }
+
+    /**
+     * @return Algorithm of indexed hashes
+     */
+    public HashAlgorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * @return Number of indexed slots
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,191 @@
+package net.ninjacat.simim.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stores images in the database in batches from a dedicated writer thread.
+ * <p>
+ * Hashing threads put images into a bounded queue and only block when the queue is full. The writer thread inserts
+ * queued images as one JDBC batch in one transaction whenever a full batch is collected or the flush interval
+ * elapses. Closing the writer flushes all queued images before returning.
+ */
+public class BatchImageWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchImageWriter.class);
+    private static final int QUEUED_BATCHES = 4;
+    private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ImageDatabase imageDatabase;
+    private final int batchSize;
+    private final boolean withThumbnails;
+    private final boolean replaceExisting;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<SimImage> queue;
+    private final Thread writerThread;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final AtomicLong stored = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates writer storing images with their thumbnails and starts its thread
+     *
+     * @param imageDatabase Database to write to
+     * @param batchSize     Maximum number of images inserted in one batch
+     * @param flushInterval Maximum time image waits in the queue before being written
+     */
+    public BatchImageWriter(final ImageDatabase imageDatabase, final int batchSize, final Duration flushInterval) {
+        this(imageDatabase, batchSize, flushInterval, true);
+    }
+
+    /**
+     * Creates writer which inserts images and starts its thread
+     *
+     * @param imageDatabase  Database to write to
+     * @param batchSize      Maximum number of images inserted in one batch
+     * @param flushInterval  Maximum time image waits in the queue before being written
+     * @param withThumbnails Whether thumbnails should be generated and stored
+     */
+    public BatchImageWriter(final ImageDatabase imageDatabase, final int batchSize, final Duration flushInterval,
+                            final boolean withThumbnails) {
+        this(imageDatabase, batchSize, flushInterval, withThumbnails, false);
+    }
+
+    /**
+     * Creates writer and starts its thread
+     *
+     * @param imageDatabase   Database to write to
+     * @param batchSize       Maximum number of images inserted in one batch
+     * @param flushInterval   Maximum time image waits in the queue before being written
+     * @param withThumbnails  Whether thumbnails should be generated and stored
+     * @param replaceExisting Whether stored images with the same paths should be replaced in the same transaction,
+     *                        see {@link ImageDatabase#replaceImages(Collection, boolean)}
+     */
+    public BatchImageWriter(final ImageDatabase imageDatabase, final int batchSize, final Duration flushInterval,
+                            final boolean withThumbnails, final boolean replaceExisting) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.imageDatabase = imageDatabase;
+        this.batchSize = batchSize;
+        this.withThumbnails = withThumbnails;
+        this.replaceExisting = replaceExisting;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.queue = new ArrayBlockingQueue<>(batchSize * QUEUED_BATCHES);
+        this.writerThread = new Thread(this::run, "simim-db-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues image for writing, blocking while the queue is full. Thumbnail, if it is stored, is encoded in the
+     * calling thread, so that the writer thread only talks to the database.
+     *
+     * @param image Image to store
+     */
+    public void write(final SimImage image) {
+        if (this.closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (this.withThumbnails) {
+            image.getThumbnailBlob();
+        }
+        try {
+            this.queue.put(image);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImageDatabaseException("Interrupted while queueing image " + image, e);
+        }
+    }
+
+    /**
+     * @return Number of images waiting in the queue
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return Number of images stored so far
+     */
+    public long getStoredCount() {
+        return this.stored.get();
+    }
+
+    /**
+     * Flushes all queued images and stops writer thread
+     *
+     * @throws ImageDatabaseException if any of the batches failed to be written
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.writerThread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImageDatabaseException("Interrupted while flushing images", e);
+        }
+        final RuntimeException error = this.failure.get();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void run() {
+        final List<SimImage> batch = new ArrayList<>(this.batchSize);
+        long flushDeadline = System.nanoTime() + this.flushIntervalNanos;
+        while (!this.closed || !this.queue.isEmpty()) {
+            try {
+                final long waitTime = Math.max(0, Math.min(flushDeadline - System.nanoTime(), CLOSE_CHECK_NANOS));
+                final SimImage image = this.queue.poll(waitTime, TimeUnit.NANOSECONDS);
+                if (image != null) {
+                    batch.add(image);
+                    this.queue.drainTo(batch, this.batchSize - batch.size());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (batch.size() >= this.batchSize || System.nanoTime() >= flushDeadline) {
+                flush(batch);
+                flushDeadline = System.nanoTime() + this.flushIntervalNanos;
+            }
+        }
+        this.queue.drainTo(batch);
+        flush(batch);
+    }
+
+    private void flush(final List<SimImage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (this.replaceExisting) {
+                this.imageDatabase.replaceImages(batch, this.withThumbnails);
+            } else {
+                this.imageDatabase.insertImages(batch, this.withThumbnails);
+            }
+            this.stored.addAndGet(batch.size());
+            LOGGER.debug("Stored {} images", batch.size());
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to store batch of {} images", batch.size(), e);
+            this.failure.compareAndSet(null, e);
+        }
+        batch.forEach(SimImage::releaseImage);
+        batch.clear();
+    }
+}
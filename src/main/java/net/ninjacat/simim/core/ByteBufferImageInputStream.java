@@ -0,0 +1,67 @@
+package net.ninjacat.simim.core;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Image input stream reading directly from a {@link ByteBuffer}.
+ * <p>
+ * {@code ImageIO.createImageInputStream(InputStream)} caches everything read from the stream in memory or in a
+ * temporary file to support seeking. Buffer already holds the whole file, so seeking only moves buffer position and
+ * image readers get the bytes without any intermediate copies.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates stream over remaining bytes of the buffer. Position of the buffer itself is not changed
+     *
+     * @param buffer Source buffer
+     */
+    public ByteBufferImageInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        this.bitOffset = 0;
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        this.streamPos++;
+        return this.buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        checkClosed();
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("Invalid offset or length");
+        }
+        this.bitOffset = 0;
+        if (length == 0) {
+            return 0;
+        }
+        final int count = Math.min(length, this.buffer.remaining());
+        if (count == 0) {
+            return -1;
+        }
+        this.buffer.get(bytes, offset, count);
+        this.streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return this.buffer.limit();
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        super.seek(pos);
+        this.buffer.position((int) Math.min(pos, this.buffer.limit()));
+    }
+}
@@ -0,0 +1,61 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Matcher which compares images by two hashes.
+ * <p>
+ * Candidates are found with an index of the cheap pruning hash, and only candidates whose verifying hash is also
+ * close enough are reported as similar, so that images need to look similar to both algorithms. Images which do not
+ * have the pruning hash, e.g. ones stored before it was introduced, are compared by verifying hash only, with its own
+ * index, which is only built if there are such images.
+ */
+public class CascadedMatcher implements HashMatcher {
+
+    private final HashArena arena;
+    private final HashAlgorithm pruneAlgorithm;
+    private final int pruneDistance;
+    private final HashAlgorithm verifyAlgorithm;
+    private final int verifyDistance;
+    private final ArenaBkTree pruneIndex;
+    private final ArenaBkTree verifyIndex;
+
+    /**
+     * Creates matcher, indexing all images of the arena
+     *
+     * @param arena           Image hashes
+     * @param pruneAlgorithm  Algorithm of the hash used to find candidates
+     * @param pruneDistance   Maximum distance between pruning hashes of similar images, inclusive
+     * @param verifyAlgorithm Algorithm of the hash used to verify candidates, all images must have it
+     * @param verifyDistance  Maximum distance between verifying hashes of similar images, inclusive
+     */
+    public CascadedMatcher(final HashArena arena,
+                           final HashAlgorithm pruneAlgorithm, final int pruneDistance,
+                           final HashAlgorithm verifyAlgorithm, final int verifyDistance) {
+        Preconditions.checkArgument(pruneAlgorithm != verifyAlgorithm, "Cascade needs two different algorithms");
+        this.arena = arena;
+        this.pruneAlgorithm = pruneAlgorithm;
+        this.pruneDistance = pruneDistance;
+        this.verifyAlgorithm = verifyAlgorithm;
+        this.verifyDistance = verifyDistance;
+        this.pruneIndex = ArenaBkTree.of(arena, pruneAlgorithm);
+        this.verifyIndex = this.pruneIndex.size() < arena.size() ? ArenaBkTree.of(arena, verifyAlgorithm) : null;
+    }
+
+    @Override
+    public int[] matches(final int slot) {
+        if (!this.arena.has(slot, this.pruneAlgorithm)) {
+            return this.verifyIndex.search(slot, this.verifyDistance);
+        }
+        final int[] candidates = this.pruneIndex.search(slot, this.pruneDistance);
+        int count = 0;
+        for (final int candidate : candidates) {
+            if (this.arena.distance(this.verifyAlgorithm, slot, candidate) <= this.verifyDistance) {
+                candidates[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+}
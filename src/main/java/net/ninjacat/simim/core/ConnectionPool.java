@@ -0,0 +1,227 @@
+package net.ninjacat.simim.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of database connections, each with its own prepared statements.
+ * <p>
+ * Connections are opened on demand up to the pool size; when all of them are in use, callers wait for one to be
+ * returned. A connection is used by one thread at a time, so statements prepared on it are never shared between
+ * threads and are kept for the lifetime of the connection. Pool can also wrap a single existing connection, in which
+ * case all database access is serialized on it.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    public static final int DEFAULT_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * Opens new connections for the pool
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int size;
+    private final long timeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Creates pool
+     *
+     * @param factory       Opens connections
+     * @param size          Maximum number of open connections
+     * @param timeoutMillis Maximum time to wait for a free connection
+     */
+    public ConnectionPool(final ConnectionFactory factory, final int size, final long timeoutMillis) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.factory = factory;
+        this.size = size;
+        this.timeoutMillis = timeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Creates pool of connections to a database
+     *
+     * @param url      JDBC URL
+     * @param user     User name
+     * @param password Password
+     * @param size     Maximum number of open connections
+     * @return new pool
+     */
+    public static ConnectionPool of(final String url, final String user, final String password, final int size) {
+        return new ConnectionPool(() -> DriverManager.getConnection(url, user, password), size,
+                DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Wraps existing connection. All users of the pool take turns using it
+     *
+     * @param connection Database connection, it is closed when pool is closed
+     * @return Pool of one connection
+     */
+    public static ConnectionPool of(final Connection connection) {
+        return new ConnectionPool(() -> connection, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes a connection from the pool, opening a new one if all connections are in use and pool is not full.
+     * Connection must be returned by closing it, usually with try-with-resources
+     *
+     * @return Connection for exclusive use by the calling thread
+     * @throws SQLException if new connection could not be opened or no connection was returned in time
+     */
+    public PooledConnection acquire() throws SQLException {
+        PooledConnection connection = this.idle.poll();
+        if (connection == null) {
+            connection = open();
+        }
+        if (connection == null) {
+            try {
+                connection = this.idle.poll(this.timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for database connection", e);
+            }
+            if (connection == null) {
+                throw new SQLException("No database connection available in " + this.timeoutMillis + "ms");
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * @return Maximum number of open connections
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Closes all connections, including the ones which are in use
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (final PooledConnection connection : this.all) {
+            try {
+                connection.connection.close();
+            } catch (final SQLException e) {
+                LOGGER.warn("Failed to close database connection", e);
+            }
+        }
+        this.all.clear();
+        this.idle.clear();
+    }
+
+    /**
+     * @return New connection, or {@code null} if pool is full
+     */
+    private synchronized PooledConnection open() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        if (this.all.size() == this.size) {
+            return null;
+        }
+        final PooledConnection connection = new PooledConnection(this.factory.open());
+        this.all.add(connection);
+        return connection;
+    }
+
+    private void release(final PooledConnection connection) {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            try {
+                if (connection.connection.isClosed()) {
+                    this.all.remove(connection);
+                    return;
+                }
+            } catch (final SQLException e) {
+                this.all.remove(connection);
+                return;
+            }
+        }
+        this.idle.offer(connection);
+    }
+
+    /**
+     * Connection taken from the pool, caching statements prepared on it. Closing it returns connection to the pool
+     */
+    public final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(final Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @return Underlying connection. It must not be closed or used after this pooled connection is returned
+         */
+        public Connection getConnection() {
+            return this.connection;
+        }
+
+        /**
+         * Returns statement prepared on this connection, preparing it on first use
+         *
+         * @param sql SQL statement
+         * @return Prepared statement, must not be closed
+         */
+        public PreparedStatement prepare(final String sql) throws SQLException {
+            PreparedStatement statement = this.statements.get(sql);
+            if (statement == null) {
+                statement = this.connection.prepareStatement(sql);
+                this.statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Returns insert statement which returns generated keys, preparing it on first use
+         *
+         * @param sql SQL insert statement
+         * @return Prepared statement, must not be closed
+         */
+        public PreparedStatement prepareInsert(final String sql) throws SQLException {
+            final String key = "generated keys:" + sql;
+            PreparedStatement statement = this.statements.get(key);
+            if (statement == null) {
+                statement = this.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                this.statements.put(key, statement);
+            }
+            return statement;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
@@ -1,47 +1,115 @@
 package net.ninjacat.simim.core;
 
+import com.google.common.base.Preconditions;
 
 /**
- * Discrete cosine transform implementation. Only performs forward transform
+ * Discrete cosine transform implementation. Only performs forward transform.
+ * <p>
+ * Computes orthonormal two-dimensional DCT-II of a square block as two passes of one-dimensional transform, first over
+ * rows and then over columns, using precomputed table of cosines. Instances keep their own scratch buffer and do not
+ * allocate when transforming, so they are not thread-safe.
  */
 public final class Dct {
 
     private static final double INV_SQ = 1 / Math.sqrt(2);
-    private static final double QUARTER = 0.25;
 
-    private Dct() {
+    private final int size;
+    private final double[] cosines;
+    private final double[] buffer;
+
+    /**
+     * Creates transform for blocks of given size
+     *
+     * @param size Width and height of the block
+     */
+    public Dct(final int size) {
+        Preconditions.checkArgument(size > 0, "DCT size must be positive");
+        this.size = size;
+        this.cosines = new double[size * size];
+        this.buffer = new double[size * size];
+        final double scale = Math.sqrt(2.0 / size);
+        for (int k = 0; k < size; k++) {
+            for (int n = 0; n < size; n++) {
+                this.cosines[k * size + n] = scale * alpha(k) * Math.cos((2 * n + 1) * k * Math.PI / (2 * size));
+            }
+        }
     }
 
     /**
-     * Performs forward DCT on a supplied "image" - two dimensional data array
-     * @param image Source data for DCT
-     * @return two-dimensional double array of DCT coefficients
+     * @return Width and height of the block
      */
-    public static double[][] forward(final int[][] image) {
-        final int maxV = image.length;
-        final int maxU = image[0].length;
+    public int size() {
+        return this.size;
+    }
 
-        final double[][] result = new double[maxU][maxV];
-        for (int u = 0; u < maxU; u++) {
-            for (int v = 0; v < maxV; v++) {
+    /**
+     * Performs forward DCT of the whole block
+     *
+     * @param input  Source data, row by row
+     * @param output Array to receive coefficients, row by row. Row index is vertical frequency
+     */
+    public void forward(final double[] input, final double[] output) {
+        forward(input, output, this.size);
+    }
 
-                result[u][v] = calculateForwardForElement(u, v, image);
+    /**
+     * Performs forward DCT, but calculates only lowest frequencies, i.e. top-left corner of coefficient matrix
+     *
+     * @param input  Source data, row by row
+     * @param output Array to receive {@code count * count} coefficients, row by row
+     * @param count  Number of lowest frequencies to calculate in each direction
+     */
+    public void forward(final double[] input, final double[] output, final int count) {
+        Preconditions.checkArgument(count > 0 && count <= this.size, "Invalid number of coefficients");
+        Preconditions.checkArgument(input.length >= this.size * this.size, "Input is smaller than DCT block");
+        Preconditions.checkArgument(output.length >= count * count, "Output is too small");
 
+        final int n = this.size;
+        for (int y = 0; y < n; y++) {
+            final int row = y * n;
+            for (int u = 0; u < count; u++) {
+                final int cosine = u * n;
+                double sum = 0;
+                for (int x = 0; x < n; x++) {
+                    sum += input[row + x] * this.cosines[cosine + x];
+                }
+                this.buffer[y * count + u] = sum;
+            }
+        }
+        for (int v = 0; v < count; v++) {
+            final int cosine = v * n;
+            for (int u = 0; u < count; u++) {
+                double sum = 0;
+                for (int y = 0; y < n; y++) {
+                    sum += this.buffer[y * count + u] * this.cosines[cosine + y];
+                }
+                output[v * count + u] = sum;
             }
         }
-        return result;
     }
 
-
-    private static double calculateForwardForElement(final int u, final int v, final int[][] image) {
-        double sum = 0;
-        final int N = image.length * image[0].length;
-        for (int y = 0; y < image.length; y++) {
-            for (int x = 0; x < image[0].length; x++) {
-                sum += image[x][y] * Math.cos((2 * x + 1) * u * Math.PI / N) * Math.cos((2 * y + 1) * v * Math.PI / N);
+    /**
+     * Performs forward DCT on a supplied "image" - two dimensional data array
+     * @param image Source data for DCT, must be square
+     * @return two-dimensional double array of DCT coefficients
+     */
+    public static double[][] forward(final int[][] image) {
+        final int size = image.length;
+        final double[] input = new double[size * size];
+        for (int y = 0; y < size; y++) {
+            Preconditions.checkArgument(image[y].length == size, "DCT source must be square");
+            for (int x = 0; x < size; x++) {
+                input[y * size + x] = image[y][x];
             }
         }
-        return QUARTER * alpha(u) * alpha(v) * sum;
+        final double[] output = new double[size * size];
+        new Dct(size).forward(input, output);
+
+        final double[][] result = new double[size][size];
+        for (int v = 0; v < size; v++) {
+            System.arraycopy(output, v * size, result[v], 0, size);
+        }
+        return result;
     }
 
     private static double alpha(final int u) {
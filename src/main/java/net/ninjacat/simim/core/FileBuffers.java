@@ -0,0 +1,108 @@
+package net.ninjacat.simim.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads whole files into reusable buffers.
+ * <p>
+ * Files are read through {@link FileChannel} into heap buffers taken from a pool, and buffers released by workers go
+ * back to the pool, so that steady-state scanning does not allocate them. Files larger than mapping threshold are
+ * memory-mapped instead of being copied to the heap. Pool is thread-safe and keeps at most given number of bytes.
+ */
+public class FileBuffers {
+
+    public static final int DEFAULT_MAP_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private final long maxPooledBytes;
+    private final int mapThreshold;
+    private final Deque<ByteBuffer> pool = new ConcurrentLinkedDeque<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * Creates buffer pool
+     *
+     * @param maxPooledBytes Maximum total capacity of buffers kept for reuse
+     * @param mapThreshold   Files of this size and larger are memory-mapped
+     */
+    public FileBuffers(final long maxPooledBytes, final int mapThreshold) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Reads whole file. Returned buffer should be given back with {@link #release(ByteBuffer)} when it is not needed
+     * anymore
+     *
+     * @param path File path
+     * @return Buffer with file content between its position and limit
+     */
+    public ByteBuffer read(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + path);
+            }
+            if (size >= this.mapThreshold) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            final ByteBuffer buffer = acquire((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until buffer is full or file ends
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Returns buffer to the pool. Memory-mapped buffers are not pooled
+     *
+     * @param buffer Buffer returned by {@link #read(Path)}
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer instanceof MappedByteBuffer || !buffer.hasArray()) {
+            return;
+        }
+        if (this.pooledBytes.addAndGet(buffer.capacity()) <= this.maxPooledBytes) {
+            this.pool.push(buffer);
+        } else {
+            this.pooledBytes.addAndGet(-buffer.capacity());
+        }
+    }
+
+    private ByteBuffer acquire(final int size) {
+        final ByteBuffer pooled = this.pool.poll();
+        if (pooled != null) {
+            this.pooledBytes.addAndGet(-pooled.capacity());
+            if (pooled.capacity() >= size) {
+                pooled.clear();
+                pooled.limit(size);
+                return pooled;
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize(size));
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Rounds size up to power of two, so that buffers fit the next files of similar size
+     */
+    private static int bufferSize(final int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        final int rounded = Integer.highestOneBit(size - 1) << 1;
+        return rounded > 0 ? rounded : size;
+    }
+}
@@ -0,0 +1,87 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fast content fingerprint of a file. Only the file size and the first and the last 64 KB of content are hashed,
+ * which is enough to tell edited or replaced image from the original and to recognise a file which was moved.
+ */
+public final class FileFingerprint {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+
+    private FileFingerprint() {
+    }
+
+    /**
+     * Calculates fingerprint of a file
+     *
+     * @param path File path
+     * @return 64-bit fingerprint
+     */
+    public static long of(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final Hasher hasher = HASH_FUNCTION.newHasher().putLong(size);
+            final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            readChunk(channel, 0, buffer);
+            hasher.putBytes(buffer.array(), 0, buffer.position());
+            if (size > CHUNK_SIZE) {
+                buffer.clear();
+                readChunk(channel, Math.max(CHUNK_SIZE, size - CHUNK_SIZE), buffer);
+                hasher.putBytes(buffer.array(), 0, buffer.position());
+            }
+            return hasher.hash().asLong();
+        }
+    }
+
+    /**
+     * Calculates fingerprint of file content which is already read into memory. Result is the same as for the file
+     *
+     * @param content Whole content of the file between buffer position and limit. Buffer position is not changed
+     * @return 64-bit fingerprint
+     */
+    public static long of(final ByteBuffer content) {
+        final int size = content.remaining();
+        final Hasher hasher = HASH_FUNCTION.newHasher().putLong(size);
+        putBytes(hasher, content, 0, Math.min(CHUNK_SIZE, size));
+        if (size > CHUNK_SIZE) {
+            final int tail = Math.max(CHUNK_SIZE, size - CHUNK_SIZE);
+            putBytes(hasher, content, tail, size - tail);
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static void putBytes(final Hasher hasher, final ByteBuffer content, final int offset, final int length) {
+        if (content.hasArray()) {
+            hasher.putBytes(content.array(), content.arrayOffset() + content.position() + offset, length);
+        } else {
+            final byte[] chunk = new byte[length];
+            final ByteBuffer source = content.duplicate();
+            source.position(source.position() + offset);
+            source.get(chunk);
+            hasher.putBytes(chunk);
+        }
+    }
+
+    private static void readChunk(final FileChannel channel, final long position, final ByteBuffer buffer)
+            throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package net.ninjacat.simim.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.OptionalLong;
+
+/**
+ * Size, modification time and optional content fingerprint of an image file, used to tell whether file has changed
+ * since it was hashed
+ */
+public final class FileStamp {
+
+    /**
+     * Stamp of a file for which size and modification time are not known, e.g. stored by older version
+     */
+    public static final FileStamp UNKNOWN = new FileStamp(-1, -1);
+
+    private final long size;
+    private final long lastModified;
+    private final Long fingerprint;
+
+    public FileStamp(final long size, final long lastModified) {
+        this(size, lastModified, null);
+    }
+
+    public FileStamp(final long size, final long lastModified, final Long fingerprint) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Reads stamp of a file with a single attribute lookup
+     *
+     * @param path File path
+     * @return File stamp
+     */
+    public static FileStamp of(final Path path) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Calculates content fingerprint of the file and returns copy of this stamp with the fingerprint
+     *
+     * @param path File path
+     * @return File stamp with fingerprint
+     */
+    public FileStamp withFingerprint(final Path path) throws IOException {
+        return new FileStamp(this.size, this.lastModified, FileFingerprint.of(path));
+    }
+
+    /**
+     * @param fingerprint Content fingerprint calculated elsewhere
+     * @return Copy of this stamp with given fingerprint
+     */
+    public FileStamp withFingerprint(final long fingerprint) {
+        return new FileStamp(this.size, this.lastModified, fingerprint);
+    }
+
+    /**
+     * @return File size in bytes or -1 if unknown
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return File modification time in milliseconds since epoch or -1 if unknown
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * @return Content fingerprint, if it was calculated
+     */
+    public OptionalLong getFingerprint() {
+        return this.fingerprint == null ? OptionalLong.empty() : OptionalLong.of(this.fingerprint);
+    }
+
+    public boolean isKnown() {
+        return this.size >= 0;
+    }
+
+    /**
+     * Checks whether two stamps have same size and modification time, ignoring fingerprints
+     *
+     * @param other Other stamp
+     * @return {@code true} if file did not change according to its attributes
+     */
+    public boolean hasSameAttributes(final FileStamp other) {
+        return isKnown() && this.size == other.size && this.lastModified == other.lastModified;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final FileStamp fileStamp = (FileStamp) o;
+        return this.size == fileStamp.size && this.lastModified == fileStamp.lastModified &&
+                Objects.equals(this.fingerprint, fileStamp.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.size, this.lastModified, this.fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return "FileStamp{" +
+                "size=" + this.size +
+                ", lastModified=" + this.lastModified +
+                ", fingerprint=" + this.fingerprint +
+                '}';
+    }
+}
@@ -1,11 +1,17 @@
 package net.ninjacat.simim.core;
 
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
+import com.google.common.base.Preconditions;
 
-import java.awt.*;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.util.BitSet;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 /**
  * Enumeration of hash algorithms for images
@@ -17,24 +23,27 @@ public enum  HashAlgorithm {
      */
     DHash {
         private static final int SIZE = 8;
+        private static final int WIDTH = SIZE + 1;
 
         @Override
-        public BitSet signature(final Image image) {
-            final BufferedImage gsImage = SwingFXUtils.fromFXImage(image, null);
-            final BufferedImage thumbnail = toBufferedImage(
-                    gsImage.getScaledInstance(SIZE + 1, SIZE, BufferedImage.SCALE_SMOOTH));
-            final BitSet gradient = new BitSet(hashSize());
+        public HashBits signature(final BufferedImage image) {
+            final byte[] thumbnail = Resampler.grayscale(image, WIDTH, SIZE);
+            final long[] gradient = new long[hashSize() / Long.SIZE];
             int bit = SIZE * SIZE;
             for (int a = 0; a < SIZE; a++) {
                 for (int b = 1; b < SIZE; b++) {
-                    final int phrz = Integer.compareUnsigned(thumbnail.getRGB(b, a), thumbnail.getRGB(b - 1, a));
-                    final int pvrt = Integer.compareUnsigned(thumbnail.getRGB(a, b), thumbnail.getRGB(a, b - 1));
-                    gradient.set(bit, phrz >= 0);
-                    gradient.set(bit * 2, pvrt >= 0);
+                    final int phrz = Integer.compare(pixel(thumbnail, WIDTH, b, a), pixel(thumbnail, WIDTH, b - 1, a));
+                    final int pvrt = Integer.compare(pixel(thumbnail, WIDTH, a, b), pixel(thumbnail, WIDTH, a, b - 1));
+                    setBit(gradient, bit, phrz >= 0);
+                    // vertical gradient of the first step would be bit 128, one past the two words of the
+                    // signature, so it is not kept, same as in hashes converted from the old format by V2
+                    if (bit * 2 < hashSize()) {
+                        setBit(gradient, bit * 2, pvrt >= 0);
+                    }
                     bit -= 1;
                 }
             }
-            return gradient;
+            return HashBits.wrap(gradient);
         }
 
         @Override
@@ -44,36 +53,41 @@ public enum  HashAlgorithm {
     },
 
     /**
-     * Another perceptual hash. Kind of like dHash but doesn't calculate difference by rows and columns.
-     * Despite the name this is *not* a pHash implementation, as pHash works on DCT of the original image
+     * Perceptual hash based on discrete cosine transform of the image.
+     * Image is reduced to 32x32 grayscale, transformed with DCT and lowest 8x8 frequencies, not including the DC row
+     * and column, are compared to their median. Each bit is set when the coefficient is above the median.
+     * See: http://www.hackerfactor.com/blog/index.php?/archives/432-Looks-Like-It.html
      */
     PHash {
-
         private static final int THUMBNAIL_SIZE = 32;
         private static final int SIZE = 8;
+        private static final int FREQUENCIES = SIZE + 1;
+
+        private final ThreadLocal<Dct> dct = ThreadLocal.withInitial(() -> new Dct(THUMBNAIL_SIZE));
 
         @Override
-        public BitSet signature(final Image image) {
-            final BufferedImage gsImage = SwingFXUtils.fromFXImage(image, null);
-            final BufferedImage thumbnail = toBufferedImage(
-                    gsImage.getScaledInstance(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.SCALE_SMOOTH));
-            final int[][] pixels = new int[THUMBNAIL_SIZE][THUMBNAIL_SIZE];
-            for (int y = 0; y < THUMBNAIL_SIZE; y++) {
-                for (int x = 0; x < THUMBNAIL_SIZE; x++) {
-                    pixels[x][y] = thumbnail.getRGB(x, y);
-                }
+        public HashBits signature(final BufferedImage image) {
+            final byte[] thumbnail = Resampler.grayscale(image, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            final double[] pixels = new double[thumbnail.length];
+            for (int i = 0; i < thumbnail.length; i++) {
+                pixels[i] = thumbnail[i] & 0xff;
             }
+            final double[] frequencies = new double[FREQUENCIES * FREQUENCIES];
+            this.dct.get().forward(pixels, frequencies, FREQUENCIES);
 
-            final BitSet gradient = new BitSet(hashSize());
-            int bit = SIZE * SIZE;
-            for (int a = 0; a < SIZE; a++) {
-                for (int b = 1; b < SIZE; b++) {
-                    final int phrz = Integer.compareUnsigned(pixels[b][a], pixels[b - 1][a]);
-                    gradient.set(bit, phrz >= 0);
-                    bit -= 1;
-                }
+            final double[] coefficients = new double[SIZE * SIZE];
+            for (int v = 0; v < SIZE; v++) {
+                System.arraycopy(frequencies, (v + 1) * FREQUENCIES + 1, coefficients, v * SIZE, SIZE);
             }
-            return gradient;
+            final double[] sorted = coefficients.clone();
+            Arrays.sort(sorted);
+            final double median = (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+
+            final long[] signature = new long[hashSize() / Long.SIZE];
+            for (int bit = 0; bit < coefficients.length; bit++) {
+                setBit(signature, bit, coefficients[bit] > median);
+            }
+            return HashBits.wrap(signature);
         }
 
         @Override
@@ -82,34 +96,77 @@ public enum  HashAlgorithm {
         }
     };
 
-    public abstract BitSet signature(final Image image);
+    /**
+     * Calculates signature of an image
+     *
+     * @param image Source image of any size
+     * @return Image signature
+     */
+    public abstract HashBits signature(final BufferedImage image);
+
+    /**
+     * Calculates signature of an 8-bit grayscale image. The buffer is used as is, without copying
+     *
+     * @param luminance Pixel luminance, row by row
+     * @param width     Image width
+     * @param height    Image height
+     * @return Image signature
+     */
+    public HashBits signature(final byte[] luminance, final int width, final int height) {
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(luminance, width * height), width, height, width, 1, new int[]{0}, null);
+        final ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                false, false, Transparency.OPAQUE, DataBufferByte.TYPE_BYTE);
+        return signature(new BufferedImage(colorModel, raster, false, null));
+    }
+
+    /**
+     * Calculates signature of an RGB image. The buffer is used as is, without copying
+     *
+     * @param rgb    Pixels packed as {@code 0xRRGGBB}, row by row
+     * @param width  Image width
+     * @param height Image height
+     * @return Image signature
+     */
+    public HashBits signature(final int[] rgb, final int width, final int height) {
+        final DirectColorModel colorModel = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+        final WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(rgb, width * height),
+                width, height, width, colorModel.getMasks(), null);
+        return signature(new BufferedImage(colorModel, raster, false, null));
+    }
 
     /**
      * @return Hash size in bits
      */
     public abstract int hashSize();
 
+    /**
+     * @return Number of 64-bit words in the hash
+     */
+    public int wordCount() {
+        return hashSize() / Long.SIZE;
+    }
+
+    /**
+     * @return Luminance of a pixel of grayscale image
+     */
+    private static int pixel(final byte[] luminance, final int width, final int x, final int y) {
+        return luminance[y * width + x] & 0xff;
+    }
 
     /**
-     * Converts a given Image into a BufferedImage
+     * Sets or clears a bit in signature words
      *
-     * @param img The Image to be converted
-     * @return The converted BufferedImage
+     * @param words Signature words
+     * @param bit   Bit index, must be within signature width
+     * @param value Bit value
      */
-    public static BufferedImage toBufferedImage(final java.awt.Image img) {
-        if (img instanceof BufferedImage) {
-            return (BufferedImage) img;
+    private static void setBit(final long[] words, final int bit, final boolean value) {
+        Preconditions.checkElementIndex(bit, words.length * Long.SIZE, "Signature bit");
+        if (value) {
+            words[bit / Long.SIZE] |= 1L << bit;
+        } else {
+            words[bit / Long.SIZE] &= ~(1L << bit);
         }
-
-        // Create a buffered image with transparency
-        final BufferedImage bimage = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_BYTE_GRAY);
-
-        // Draw the image on to the buffered image
-        final Graphics2D bGr = bimage.createGraphics();
-        bGr.drawImage(img, 0, 0, null);
-        bGr.dispose();
-
-        // Return the buffered image
-        return bimage;
     }
 }
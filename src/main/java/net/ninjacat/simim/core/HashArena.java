@@ -0,0 +1,285 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compact store of image hashes and ids of their database rows.
+ * <p>
+ * Hashes are kept in a single {@code long[]} and ids in a parallel {@code long[]}, so that a library of millions of
+ * images takes a few arrays instead of millions of {@link ImageHash} objects. Every slot has room for words of all
+ * {@link HashAlgorithm}s, in the order of algorithms, and a mask of algorithms which were calculated for the image.
+ * Difference hash is always present. Each image is addressed by its slot, the order in which it was added.
+ * Comparison loops and indexes work with slots and read the words directly; {@link ImageHash} objects are only
+ * created for slots which are returned to callers.
+ */
+public final class HashArena {
+
+    /**
+     * Number of {@code long} words stored per slot
+     */
+    public static final int STRIDE;
+
+    private static final int[] OFFSETS = new int[HashAlgorithm.values().length];
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    static {
+        int offset = 0;
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            OFFSETS[algorithm.ordinal()] = offset;
+            offset += algorithm.wordCount();
+        }
+        STRIDE = offset;
+    }
+
+    private long[] words;
+    private long[] ids;
+    private byte[] algorithms;
+    private int size;
+
+    public HashArena() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates arena with space for given number of hashes. Arena grows when more hashes are added
+     *
+     * @param capacity Expected number of hashes
+     */
+    public HashArena(final int capacity) {
+        Preconditions.checkArgument(capacity >= 0, "Capacity must not be negative");
+        this.words = new long[capacity * STRIDE];
+        this.ids = new long[capacity];
+        this.algorithms = new byte[capacity];
+    }
+
+    /**
+     * @param algorithm Hash algorithm
+     * @return Bit of the algorithm in the mask of calculated algorithms
+     */
+    public static int mask(final HashAlgorithm algorithm) {
+        return 1 << algorithm.ordinal();
+    }
+
+    /**
+     * Adds image which has only difference hash
+     *
+     * @param id     Image id
+     * @param hashLo First word of difference hash
+     * @param hashHi Second word of difference hash
+     * @return Slot of the image
+     */
+    public int add(final long id, final long hashLo, final long hashHi) {
+        final int slot = allocate(id, mask(HashAlgorithm.DHash));
+        this.words[slot * STRIDE + OFFSETS[HashAlgorithm.DHash.ordinal()]] = hashLo;
+        this.words[slot * STRIDE + OFFSETS[HashAlgorithm.DHash.ordinal()] + 1] = hashHi;
+        return slot;
+    }
+
+    /**
+     * Adds image which has difference and perceptual hashes
+     *
+     * @param id             Image id
+     * @param hashLo         First word of difference hash
+     * @param hashHi         Second word of difference hash
+     * @param perceptualHash Perceptual hash
+     * @return Slot of the image
+     */
+    public int add(final long id, final long hashLo, final long hashHi, final long perceptualHash) {
+        final int slot = add(id, hashLo, hashHi);
+        this.algorithms[slot] |= (byte) mask(HashAlgorithm.PHash);
+        this.words[slot * STRIDE + OFFSETS[HashAlgorithm.PHash.ordinal()]] = perceptualHash;
+        return slot;
+    }
+
+    /**
+     * Adds image with all words of its slot
+     *
+     * @param id         Image id
+     * @param algorithms Mask of calculated algorithms, must include difference hash
+     * @param words      {@link #STRIDE} words in the order of algorithms, words of missing algorithms are ignored
+     * @return Slot of the image
+     */
+    public int add(final long id, final int algorithms, final long[] words) {
+        Preconditions.checkArgument((algorithms & mask(HashAlgorithm.DHash)) != 0, "Difference hash is required");
+        final int slot = allocate(id, algorithms);
+        System.arraycopy(words, 0, this.words, slot * STRIDE, STRIDE);
+        return slot;
+    }
+
+    /**
+     * Adds image hash
+     *
+     * @param id   Image id
+     * @param hash Difference hash of the image
+     * @return Slot of the image
+     */
+    public int add(final long id, final ImageHash hash) {
+        Preconditions.checkArgument(hash.getAlgorithm() == HashAlgorithm.DHash, "Difference hash is required");
+        return add(id, hash.getBits().word(0), hash.getBits().word(1));
+    }
+
+    /**
+     * Adds all hashes of an image
+     *
+     * @param id     Image id
+     * @param hashes Image hashes, must include difference hash
+     * @return Slot of the image
+     */
+    public int add(final long id, final Collection<ImageHash> hashes) {
+        final long[] slotWords = new long[STRIDE];
+        int mask = 0;
+        for (final ImageHash hash : hashes) {
+            final HashAlgorithm algorithm = hash.getAlgorithm();
+            for (int i = 0; i < algorithm.wordCount(); i++) {
+                slotWords[OFFSETS[algorithm.ordinal()] + i] = hash.getBits().word(i);
+            }
+            mask |= mask(algorithm);
+        }
+        return add(id, mask, slotWords);
+    }
+
+    private int allocate(final long id, final int algorithms) {
+        if (this.size == this.ids.length) {
+            final int capacity = Math.max(DEFAULT_CAPACITY, this.ids.length + (this.ids.length >> 1));
+            this.words = Arrays.copyOf(this.words, capacity * STRIDE);
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.algorithms = Arrays.copyOf(this.algorithms, capacity);
+        }
+        final int slot = this.size++;
+        this.ids[slot] = id;
+        this.algorithms[slot] = (byte) algorithms;
+        return slot;
+    }
+
+    /**
+     * @return Number of stored images
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param slot Image slot
+     * @return Id of the image
+     */
+    public long id(final int slot) {
+        return this.ids[checkSlot(slot)];
+    }
+
+    /**
+     * @param slot Image slot
+     * @return Mask of algorithms calculated for the image
+     */
+    public int algorithms(final int slot) {
+        return this.algorithms[checkSlot(slot)] & 0xff;
+    }
+
+    /**
+     * @param slot      Image slot
+     * @param algorithm Hash algorithm
+     * @return Whether image has hash calculated by the algorithm
+     */
+    public boolean has(final int slot, final HashAlgorithm algorithm) {
+        return (algorithms(slot) & mask(algorithm)) != 0;
+    }
+
+    /**
+     * @param slot  Image slot
+     * @param index Word index, 0 or 1
+     * @return Word of difference hash
+     */
+    public long word(final int slot, final int index) {
+        return word(slot, HashAlgorithm.DHash, index);
+    }
+
+    /**
+     * @param slot      Image slot
+     * @param algorithm Hash algorithm
+     * @param index     Word index
+     * @return Word of the hash calculated by the algorithm
+     */
+    public long word(final int slot, final HashAlgorithm algorithm, final int index) {
+        Preconditions.checkElementIndex(index, algorithm.wordCount());
+        return this.words[checkSlot(slot) * STRIDE + OFFSETS[algorithm.ordinal()] + index];
+    }
+
+    /**
+     * Copies all words of a slot
+     *
+     * @param slot   Image slot
+     * @param target Array of at least {@link #STRIDE} words
+     */
+    public void copyWords(final int slot, final long[] target) {
+        System.arraycopy(this.words, checkSlot(slot) * STRIDE, target, 0, STRIDE);
+    }
+
+    /**
+     * Creates difference hash object for a slot. Intended for returning results, not for comparisons
+     *
+     * @param slot Image slot
+     * @return Difference hash of the image
+     */
+    public ImageHash hash(final int slot) {
+        return hash(slot, HashAlgorithm.DHash);
+    }
+
+    /**
+     * Creates hash object for a slot. Intended for returning results, not for comparisons
+     *
+     * @param slot      Image slot
+     * @param algorithm Hash algorithm
+     * @return Hash of the image calculated by the algorithm
+     * @throws IllegalArgumentException if image has no hash calculated by the algorithm
+     */
+    public ImageHash hash(final int slot, final HashAlgorithm algorithm) {
+        Preconditions.checkArgument(has(slot, algorithm), "Slot %s has no %s hash", slot, algorithm);
+        final long[] hashWords = new long[algorithm.wordCount()];
+        System.arraycopy(this.words, slot * STRIDE + OFFSETS[algorithm.ordinal()], hashWords, 0, hashWords.length);
+        return new ImageHash(algorithm, HashBits.wrap(hashWords));
+    }
+
+    /**
+     * Calculates Hamming distance between difference hashes in two slots
+     */
+    public int distance(final int first, final int second) {
+        return distance(HashAlgorithm.DHash, first, second);
+    }
+
+    /**
+     * Calculates Hamming distance between hashes in two slots calculated by given algorithm. Both slots must have
+     * the hash
+     */
+    public int distance(final HashAlgorithm algorithm, final int first, final int second) {
+        final int a = checkSlot(first) * STRIDE + OFFSETS[algorithm.ordinal()];
+        final int b = checkSlot(second) * STRIDE + OFFSETS[algorithm.ordinal()];
+        int distance = 0;
+        for (int i = 0; i < algorithm.wordCount(); i++) {
+            distance += Long.bitCount(this.words[a + i] ^ this.words[b + i]);
+        }
+        return distance;
+    }
+
+    /**
+     * @return Whether two slots contain the same difference hash
+     */
+    public boolean sameHash(final int first, final int second) {
+        return distance(first, second) == 0;
+    }
+
+    /**
+     * @return Approximate number of bytes taken by the arena arrays, including unused capacity
+     */
+    public long memoryBytes() {
+        return (long) this.words.length * Long.BYTES + (long) this.ids.length * Long.BYTES + this.algorithms.length;
+    }
+
+    private int checkSlot(final int slot) {
+        if (slot < 0 || slot >= this.size) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " is out of range 0.." + this.size);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,159 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.base.Preconditions;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Fixed-width immutable bit string used as an image signature.
+ * <p>
+ * Bits are packed into {@code long} words (bit {@code i} is stored in word {@code i / 64}), so that Hamming distance
+ * between two signatures is calculated with XOR and popcount without allocating anything.
+ */
+public final class HashBits {
+
+    private static final int WORD_SIZE = Long.SIZE;
+    private static final BigInteger WORD_MASK = BigInteger.ONE.shiftLeft(WORD_SIZE).subtract(BigInteger.ONE);
+
+    private final long[] words;
+
+    private HashBits(final long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Creates signature from packed words
+     *
+     * @param words Signature words, least significant bits first
+     * @return new signature
+     */
+    public static HashBits of(final long... words) {
+        Preconditions.checkArgument(words.length > 0, "Signature must contain at least one word");
+        return new HashBits(words.clone());
+    }
+
+    /**
+     * Creates signature of given width from a {@link BitSet}. Bits outside of signature width are discarded
+     *
+     * @param bits Source bits
+     * @param size Signature width in bits, must be multiple of 64
+     * @return new signature
+     */
+    public static HashBits fromBitSet(final BitSet bits, final int size) {
+        Preconditions.checkArgument(size > 0 && size % WORD_SIZE == 0, "Signature size must be multiple of 64");
+        final long[] source = bits.toLongArray();
+        return new HashBits(Arrays.copyOf(source, size / WORD_SIZE));
+    }
+
+    /**
+     * Creates signature of given width from unsigned value of a {@link BigInteger}. Bits outside of signature width
+     * are discarded
+     *
+     * @param value Source value, bit {@code i} of the value becomes bit {@code i} of the signature
+     * @param size  Signature width in bits, must be multiple of 64
+     * @return new signature
+     */
+    public static HashBits fromBigInteger(final BigInteger value, final int size) {
+        Preconditions.checkArgument(size > 0 && size % WORD_SIZE == 0, "Signature size must be multiple of 64");
+        final long[] words = new long[size / WORD_SIZE];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = value.shiftRight(i * WORD_SIZE).longValue();
+        }
+        return new HashBits(words);
+    }
+
+    /**
+     * Creates signature from words owned by caller. The array must not be modified afterwards
+     */
+    static HashBits wrap(final long[] words) {
+        return new HashBits(words);
+    }
+
+    /**
+     * @return Signature width in bits
+     */
+    public int size() {
+        return this.words.length * WORD_SIZE;
+    }
+
+    /**
+     * @return Number of 64-bit words in the signature
+     */
+    public int wordCount() {
+        return this.words.length;
+    }
+
+    /**
+     * @param index Word index
+     * @return Word of the signature, word 0 contains bits 0-63
+     */
+    public long word(final int index) {
+        return this.words[index];
+    }
+
+    /**
+     * @param bit Bit index
+     * @return Value of the bit
+     */
+    public boolean get(final int bit) {
+        return (this.words[bit / WORD_SIZE] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Calculates Hamming distance between two signatures of the same width
+     *
+     * @param other The other signature
+     * @return Number of different bits
+     */
+    public int distance(final HashBits other) {
+        Preconditions.checkArgument(this.words.length == other.words.length, "Signatures have different width");
+        int distance = 0;
+        for (int i = 0; i < this.words.length; i++) {
+            distance += Long.bitCount(this.words[i] ^ other.words[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * @return Copy of the signature as {@link BitSet}
+     */
+    public BitSet toBitSet() {
+        return BitSet.valueOf(this.words);
+    }
+
+    /**
+     * @return Signature as non-negative {@link BigInteger}, bit {@code i} of the signature becomes bit {@code i} of
+     * the value
+     */
+    public BigInteger toBigInteger() {
+        BigInteger value = BigInteger.ZERO;
+        for (int i = this.words.length - 1; i >= 0; i--) {
+            value = value.shiftLeft(WORD_SIZE).or(BigInteger.valueOf(this.words[i]).and(WORD_MASK));
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final HashBits hashBits = (HashBits) o;
+        return Arrays.equals(this.words, hashBits.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.words);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(this.words.length * 16);
+        for (int i = this.words.length - 1; i >= 0; i--) {
+            builder.append(String.format("%016x", this.words[i]));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Groups similar hashes of a {@link HashArena} into clusters.
+ * <p>
+ * Two slots are in the same cluster if there is a chain of slots between them where each next slot is similar to the
+ * previous one, i.e. clusters are connected components of the similarity graph. Similarity is decided by a
+ * {@link HashMatcher}. Similar pairs are searched in parallel in blocks of slots on a {@link ForkJoinPool} and merged
+ * with a lock-free union-find. Clusters do not depend on the order in which pairs are found: every cluster is
+ * represented by its smallest slot, and result is ordered by it.
+ */
+public class HashClusterer {
+
+    private static final int BLOCK_SIZE = 256;
+
+    private final ForkJoinPool pool;
+
+    public HashClusterer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates clusterer
+     *
+     * @param pool Pool used to search for similar pairs
+     */
+    public HashClusterer(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Finds clusters of images with similar difference hashes
+     *
+     * @param arena       Hashes to group
+     * @param maxDistance Maximum Hamming distance between similar hashes, inclusive
+     * @return Clusters of at least two slots, each sorted in ascending order, ordered by their first slot
+     */
+    public List<int[]> cluster(final HashArena arena, final int maxDistance) {
+        return cluster(arena, HashMatcher.differenceHash(arena, maxDistance));
+    }
+
+    /**
+     * Finds clusters of images which are similar according to given matcher
+     *
+     * @param arena   Hashes to group
+     * @param matcher Finds similar images
+     * @return Clusters of at least two slots, each sorted in ascending order, ordered by their first slot
+     */
+    public List<int[]> cluster(final HashArena arena, final HashMatcher matcher) {
+        final UnionFind components = new UnionFind(arena.size());
+        this.pool.invoke(new PairSearch(matcher, components, 0, arena.size()));
+        return components.groups();
+    }
+
+    /**
+     * Searches for similar pairs of slots in a range, splitting range into blocks
+     */
+    private static final class PairSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMatcher matcher;
+        private final UnionFind components;
+        private final int from;
+        private final int to;
+
+        PairSearch(final HashMatcher matcher, final UnionFind components, final int from, final int to) {
+            this.matcher = matcher;
+            this.components = components;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= BLOCK_SIZE) {
+                for (int slot = this.from; slot < this.to; slot++) {
+                    for (final int match : this.matcher.matches(slot)) {
+                        // matchers are not required to be symmetric, so pairs are merged from whichever end finds them
+                        if (match != slot) {
+                            this.components.union(slot, match);
+                        }
+                    }
+                }
+            } else {
+                final int middle = (this.from + this.to) >>> 1;
+                invokeAll(new PairSearch(this.matcher, this.components, this.from, middle),
+                        new PairSearch(this.matcher, this.components, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * Disjoint set forest which can be updated concurrently. Larger root is always linked to the smaller one, so that
+     * root of every set is its smallest element
+     */
+    static final class UnionFind {
+        private final AtomicIntegerArray parent;
+
+        UnionFind(final int size) {
+            this.parent = new AtomicIntegerArray(size);
+            for (int i = 0; i < size; i++) {
+                this.parent.set(i, i);
+            }
+        }
+
+        int find(final int element) {
+            int current = element;
+            int next = this.parent.get(current);
+            while (next != current) {
+                // path halving: parent only ever moves closer to the root, so a lost race is harmless
+                final int grandParent = this.parent.get(next);
+                this.parent.compareAndSet(current, next, grandParent);
+                current = grandParent;
+                next = this.parent.get(current);
+            }
+            return current;
+        }
+
+        void union(final int first, final int second) {
+            int a = first;
+            int b = second;
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return;
+                }
+                if (a > b) {
+                    final int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                if (this.parent.compareAndSet(b, b, a)) {
+                    return;
+                }
+            }
+        }
+
+        List<int[]> groups() {
+            final int size = this.parent.length();
+            final int[] roots = new int[size];
+            final int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                roots[i] = find(i);
+                counts[roots[i]]++;
+            }
+            // root is the smallest element, so every group is created before any of its other members is reached
+            final int[][] members = new int[size][];
+            final int[] filled = new int[size];
+            final ImmutableList.Builder<int[]> groups = ImmutableList.builder();
+            for (int i = 0; i < size; i++) {
+                final int root = roots[i];
+                if (counts[root] > 1) {
+                    if (root == i) {
+                        members[root] = new int[counts[root]];
+                        groups.add(members[root]);
+                    }
+                    members[root][filled[root]++] = i;
+                }
+            }
+            return groups.build();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package net.ninjacat.simim.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of image hashes and ids of their database rows, used to load hash index without querying database.
+ * <p>
+ * File consists of a fixed header followed by records in {@link HashArena} layout: a {@code long} with image id in
+ * the lowest 56 bits and mask of calculated algorithms in the next 7 bits, followed by {@link HashArena#STRIDE} hash
+ * words. Deleted images are recorded by appending a tombstone record with negated id, so that the file is only ever
+ * appended to. Header contains format version, number of hash words per record, number of records, number of live
+ * images, the largest id of an image which was not deleted and CRC32 of all records, which allows to detect a snapshot which is corrupt, written
+ * for a different set of algorithms or out of sync with the database. Records are read through a memory-mapped
+ * buffer.
+ * <p>
+ * When tombstones make up more than {@value #COMPACT_PERCENT}% of records, the file is rewritten with only live
+ * records, either when it is opened or after deletion which crossed the limit. The new file is written next to the
+ * old one and moved over it, so a failed rewrite leaves the old snapshot intact.
+ */
+public class HashIndexSnapshot implements AutoCloseable {
+
+    /**
+     * Receives live records of the snapshot
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @param id         Image id
+         * @param algorithms Mask of algorithms calculated for the image, see {@link HashArena#mask(HashAlgorithm)}
+         * @param words      Hash words in {@link HashArena} layout. The array is reused for next records
+         */
+        void visit(long id, int algorithms, long[] words);
+    }
+
+    static final long MAGIC = 0x53494d494d494458L;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = (1 + HashArena.STRIDE) * Long.BYTES;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashIndexSnapshot.class);
+    private static final int HASH_WORDS = HashArena.STRIDE;
+    private static final int ALGORITHMS_SHIFT = 56;
+    private static final long ID_MASK = (1L << ALGORITHMS_SHIFT) - 1;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    /**
+     * Percentage of tombstone records in the file above which it is compacted
+     */
+    static final int COMPACT_PERCENT = 25;
+    /**
+     * Minimum number of tombstones for compaction, so that small snapshots are not rewritten on every deletion
+     */
+    static final int COMPACT_MIN_TOMBSTONES = 1024;
+
+    private final Path file;
+    private final IdSet deleted = new IdSet();
+    private FileChannel channel;
+    private CRC32 checksum = new CRC32();
+    private long recordCount;
+    private long liveCount;
+    private long maxId;
+
+    private HashIndexSnapshot(final Path file, final FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates new empty snapshot, replacing existing file
+     *
+     * @param file Snapshot file
+     * @return Empty snapshot open for appending
+     */
+    public static HashIndexSnapshot create(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        final HashIndexSnapshot snapshot = new HashIndexSnapshot(file, channel);
+        snapshot.writeHeader();
+        return snapshot;
+    }
+
+    /**
+     * Opens and verifies existing snapshot
+     *
+     * @param file Snapshot file
+     * @return Snapshot open for appending, or empty if file does not exist, has unsupported version or is corrupt
+     */
+    public static Optional<HashIndexSnapshot> open(final Path file) {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        HashIndexSnapshot snapshot = null;
+        try {
+            snapshot = new HashIndexSnapshot(file,
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            if (snapshot.load()) {
+                snapshot.compactIfNeeded();
+                return Optional.of(snapshot);
+            }
+            snapshot.close();
+        } catch (final IOException e) {
+            LOGGER.warn("Failed to read hash index snapshot {}", file, e);
+            if (snapshot != null) {
+                closeQuietly(snapshot.channel);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Appends all images of an arena to the snapshot
+     *
+     * @param arena Images to append
+     */
+    public synchronized void append(final HashArena arena) throws IOException {
+        if (arena.size() == 0) {
+            return;
+        }
+        final long[] records = new long[arena.size() * (1 + HASH_WORDS)];
+        final long[] words = new long[HASH_WORDS];
+        for (int slot = 0; slot < arena.size(); slot++) {
+            final int offset = slot * (1 + HASH_WORDS);
+            final long id = arena.id(slot);
+            records[offset] = id | (long) arena.algorithms(slot) << ALGORITHMS_SHIFT;
+            arena.copyWords(slot, words);
+            System.arraycopy(words, 0, records, offset + 1, HASH_WORDS);
+            this.maxId = Math.max(this.maxId, id);
+        }
+        writeRecords(records, arena.size());
+        this.liveCount += arena.size();
+        writeHeader();
+    }
+
+    /**
+     * Records deletion of images
+     *
+     * @param ids Ids of deleted images
+     */
+    public synchronized void delete(final long... ids) throws IOException {
+        final long[] tombstones = new long[ids.length * (1 + HASH_WORDS)];
+        int count = 0;
+        for (final long id : ids) {
+            if (this.deleted.add(id)) {
+                tombstones[count * (1 + HASH_WORDS)] = -id;
+                count++;
+            }
+        }
+        if (count > 0) {
+            writeRecords(tombstones, count);
+            this.liveCount -= count;
+            if (this.deleted.contains(this.maxId)) {
+                this.maxId = findMaxLiveId();
+            }
+            writeHeader();
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Calls visitor for every image which was not deleted, in the order images were appended
+     *
+     * @param visitor Record visitor
+     */
+    public synchronized void forEach(final RecordVisitor visitor) throws IOException {
+        forEachRecord((idWord, words) ->
+                visitor.visit(idWord & ID_MASK, (int) (idWord >>> ALGORITHMS_SHIFT), words));
+    }
+
+    /**
+     * Receives raw live records
+     */
+    @FunctionalInterface
+    private interface RawRecordVisitor {
+        void visit(long idWord, long[] words) throws IOException;
+    }
+
+    private void forEachRecord(final RawRecordVisitor visitor) throws IOException {
+        if (this.recordCount == 0) {
+            return;
+        }
+        final MappedByteBuffer records =
+                this.channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, this.recordCount * RECORD_SIZE);
+        final long[] words = new long[HASH_WORDS];
+        while (records.hasRemaining()) {
+            final long idWord = records.getLong();
+            for (int i = 0; i < HASH_WORDS; i++) {
+                words[i] = records.getLong();
+            }
+            if (idWord > 0 && !this.deleted.contains(idWord & ID_MASK)) {
+                visitor.visit(idWord, words);
+            }
+        }
+    }
+
+    /**
+     * @return Number of images in the snapshot
+     */
+    public synchronized long size() {
+        return this.liveCount;
+    }
+
+    /**
+     * @return The largest id of an image which was not deleted, so that it can be compared with the largest id in
+     * the database. 0 if there are no such images
+     */
+    public synchronized long getMaxId() {
+        return this.maxId;
+    }
+
+    /**
+     * @return Snapshot file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return Number of records in the file, including deleted images and tombstones
+     */
+    synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Scans records for the largest live id, used when the image with the largest id is deleted
+     */
+    private long findMaxLiveId() throws IOException {
+        final long[] max = {0};
+        forEachRecord((idWord, words) -> max[0] = Math.max(max[0], idWord & ID_MASK));
+        return max[0];
+    }
+
+    private void compactIfNeeded() throws IOException {
+        final long tombstones = this.deleted.size();
+        if (tombstones >= COMPACT_MIN_TOMBSTONES && tombstones * 100 > this.recordCount * COMPACT_PERCENT) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with live records only. Live records are copied to a temporary file, which then replaces
+     * the snapshot file
+     */
+    private void compact() throws IOException {
+        LOGGER.info("Compacting hash index snapshot {}, {} of {} records are deleted", this.file,
+                this.recordCount - this.liveCount, this.recordCount);
+        final Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        final HashIndexSnapshot compacted = create(temporary);
+        try {
+            final long[] records = new long[WRITE_BUFFER_RECORDS * (1 + HASH_WORDS)];
+            final int[] count = {0};
+            forEachRecord((idWord, words) -> {
+                final int offset = count[0] * (1 + HASH_WORDS);
+                records[offset] = idWord;
+                System.arraycopy(words, 0, records, offset + 1, HASH_WORDS);
+                if (++count[0] == WRITE_BUFFER_RECORDS) {
+                    compacted.writeRecords(records, count[0]);
+                    count[0] = 0;
+                }
+            });
+            compacted.writeRecords(records, count[0]);
+            compacted.liveCount = compacted.recordCount;
+            compacted.maxId = this.maxId;
+            compacted.writeHeader();
+            compacted.channel.force(true);
+        } finally {
+            compacted.close();
+        }
+        this.channel.close();
+        Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checksum = compacted.checksum;
+        this.recordCount = compacted.recordCount;
+        this.liveCount = compacted.liveCount;
+        this.deleted.clear();
+    }
+
+    /**
+     * Reads and verifies header and records
+     *
+     * @return {@code true} if snapshot is valid
+     */
+    private boolean load() throws IOException {
+        final long fileSize = this.channel.size();
+        if (fileSize < HEADER_SIZE) {
+            LOGGER.info("Hash index snapshot {} is truncated", this.file);
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getLong() != MAGIC || header.getInt() != VERSION || header.getInt() != HASH_WORDS) {
+            LOGGER.info("Hash index snapshot {} has unsupported format", this.file);
+            return false;
+        }
+        final long records = header.getLong();
+        final long live = header.getLong();
+        final long max = header.getLong();
+        final long expectedChecksum = header.getLong();
+        if (records < 0 || HEADER_SIZE + records * RECORD_SIZE > fileSize) {
+            LOGGER.info("Hash index snapshot {} is truncated", this.file);
+            return false;
+        }
+        if (records > 0) {
+            final MappedByteBuffer content =
+                    this.channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, records * RECORD_SIZE);
+            this.checksum.update(content.duplicate());
+            while (content.hasRemaining()) {
+                final long id = content.getLong();
+                content.position(content.position() + HASH_WORDS * Long.BYTES);
+                if (id < 0) {
+                    this.deleted.add(-id);
+                }
+            }
+        }
+        if (this.checksum.getValue() != expectedChecksum) {
+            LOGGER.info("Hash index snapshot {} has invalid checksum", this.file);
+            return false;
+        }
+        this.recordCount = records;
+        this.liveCount = live;
+        this.maxId = max;
+        if (fileSize > HEADER_SIZE + records * RECORD_SIZE) {
+            this.channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+        }
+        return true;
+    }
+
+    /**
+     * Writes records after the last one and updates checksum. Header is not updated, so records are ignored by
+     * {@link #open(Path)} until it is written
+     */
+    private void writeRecords(final long[] records, final int count) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.min(count, WRITE_BUFFER_RECORDS) * RECORD_SIZE);
+        long position = HEADER_SIZE + this.recordCount * RECORD_SIZE;
+        for (int start = 0; start < count; start += WRITE_BUFFER_RECORDS) {
+            final int end = Math.min(count, start + WRITE_BUFFER_RECORDS);
+            buffer.clear();
+            for (int i = start * (1 + HASH_WORDS); i < end * (1 + HASH_WORDS); i++) {
+                buffer.putLong(records[i]);
+            }
+            buffer.flip();
+            this.checksum.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                position += this.channel.write(buffer, position);
+            }
+            this.recordCount += end - start;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC)
+                .putInt(VERSION)
+                .putInt(HASH_WORDS)
+                .putLong(this.recordCount)
+                .putLong(this.liveCount)
+                .putLong(this.maxId)
+                .putLong(this.checksum.getValue());
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += this.channel.write(header, position);
+        }
+    }
+
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = this.channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file " + this.file);
+            }
+            offset += read;
+        }
+    }
+
+    private static void closeQuietly(final FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException ignored) {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.ninjacat.simim.core;
+
+/**
+ * Finds images similar to an image in a {@link HashArena}
+ */
+@FunctionalInterface
+public interface HashMatcher {
+
+    /**
+     * Finds slots of images similar to the image in given slot. Implementations must be thread-safe
+     *
+     * @param slot Image slot
+     * @return Slots of similar images, may include the slot itself
+     */
+    int[] matches(int slot);
+
+    /**
+     * Creates matcher comparing only difference hashes
+     *
+     * @param arena       Image hashes
+     * @param maxDistance Maximum Hamming distance between similar hashes, inclusive
+     * @return Matcher
+     */
+    static HashMatcher differenceHash(final HashArena arena, final int maxDistance) {
+        final ArenaBkTree index = ArenaBkTree.of(arena);
+        return slot -> index.search(slot, maxDistance);
+    }
+}
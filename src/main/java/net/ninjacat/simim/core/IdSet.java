@@ -0,0 +1,74 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Set of positive image ids kept in a single open-addressing {@code long[]}, so that millions of ids do not need a
+ * boxed {@link Long} and a hash map entry each
+ */
+final class IdSet {
+
+    private static final long EMPTY = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] table = new long[DEFAULT_CAPACITY];
+    private int size;
+
+    /**
+     * @param id Positive image id
+     * @return {@code true} if the id was not in the set
+     */
+    boolean add(final long id) {
+        Preconditions.checkArgument(id > 0, "Image id must be positive: %s", id);
+        if ((this.size + 1) * 2 > this.table.length) {
+            grow();
+        }
+        final int index = indexOf(this.table, id);
+        if (this.table[index] == id) {
+            return false;
+        }
+        this.table[index] = id;
+        this.size++;
+        return true;
+    }
+
+    boolean contains(final long id) {
+        return id > 0 && this.table[indexOf(this.table, id)] == id;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void clear() {
+        this.table = new long[DEFAULT_CAPACITY];
+        this.size = 0;
+    }
+
+    private void grow() {
+        final long[] grown = new long[this.table.length * 2];
+        for (final long id : this.table) {
+            if (id != EMPTY) {
+                grown[indexOf(grown, id)] = id;
+            }
+        }
+        this.table = grown;
+    }
+
+    /**
+     * @return Slot which holds the id or the empty slot where it belongs, using linear probing
+     */
+    private static int indexOf(final long[] table, final long id) {
+        final int mask = table.length - 1;
+        int index = mix(id) & mask;
+        while (table[index] != EMPTY && table[index] != id) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int mix(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
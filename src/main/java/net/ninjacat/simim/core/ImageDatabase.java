@@ -1,153 +1,927 @@
 package net.ninjacat.simim.core;
 
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.imageio.ImageIO;
 import javax.inject.Inject;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
+/**
+ * Stores image hashes, file stamps and thumbnails.
+ * <p>
+ * Every operation takes a connection from {@link ConnectionPool} for its duration and uses statements prepared on
+ * that connection, so operations can be called from many threads at once. With a pool of one connection they are
+ * executed one at a time. Time of every statement and failures are recorded in {@link Metrics#global()}
+ */
 public class ImageDatabase {
 
-    private final PreparedStatement insertStatement;
-    private final PreparedStatement selectHashes;
-    private final PreparedStatement selectByPath;
-    private final PreparedStatement countByPath;
-    private final PreparedStatement selectByHash;
-    private final PreparedStatement selectPaths;
-    private final PreparedStatement deletePath;
-    private final Connection connection;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageDatabase.class);
+    private static final int SNAPSHOT_REBUILD_CHUNK = 16 * 1024;
+    private static final Metrics METRICS = Metrics.global();
+    private static final LatencyTimer INSERT_TIMER = METRICS.timer("db.insert");
+    private static final LatencyTimer INSERT_THUMBNAILS_TIMER = METRICS.timer("db.insertThumbnails");
+    private static final LatencyTimer COMMIT_TIMER = METRICS.timer("db.commit");
+    private static final LatencyTimer SELECT_THUMBNAIL_TIMER = METRICS.timer("db.selectThumbnail");
+    private static final LatencyTimer UPDATE_STAMP_TIMER = METRICS.timer("db.updateStamp");
+    private static final LatencyTimer MOVE_TIMER = METRICS.timer("db.move");
+    private static final LatencyTimer LOAD_HASHES_TIMER = METRICS.timer("db.loadHashes");
+    private static final LatencyTimer LOAD_HASH_ARENA_TIMER = METRICS.timer("db.loadHashArena");
+    private static final LatencyTimer DELETE_TIMER = METRICS.timer("db.delete");
+    private static final LatencyTimer DELETE_ALL_TIMER = METRICS.timer("db.deleteAll");
+    private static final LatencyTimer LOAD_PATHS_TIMER = METRICS.timer("db.loadPaths");
+    private static final LatencyTimer LOAD_BY_HASH_TIMER = METRICS.timer("db.loadByHash");
+    private static final LatencyTimer LOAD_BY_IDS_TIMER = METRICS.timer("db.loadByIds");
+    private static final LatencyTimer LOAD_BY_PATH_TIMER = METRICS.timer("db.loadByPath");
+    private static final LatencyTimer LOAD_KNOWN_FILES_TIMER = METRICS.timer("db.loadKnownFiles");
+    private static final LatencyTimer EXISTS_TIMER = METRICS.timer("db.exists");
+    private static final LongAdder INSERTED_IMAGES = METRICS.counter("db.insertedImages");
+
+    private static final String INSERT_IMAGE =
+            "insert into image(hash_lo, hash_hi, phash, path, file_size, modified, fingerprint) " +
+                    "values(?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_THUMBNAIL = "insert into thumbnail(image_id, data) values(?, ?)";
+    private static final String SELECT_THUMBNAIL = "select data from thumbnail where image_id = ?";
+    private static final String SELECT_HASHES = "select distinct hash_lo, hash_hi from image";
+    private static final String SELECT_HASH_ARENA = "select id, hash_lo, hash_hi, phash from image order by id";
+    private static final String SELECT_IMAGE_COUNT = "select count(*), max(id) from image";
+    private static final String SELECT_PATHS = "select distinct(path) from image";
+    private static final String SELECT_KNOWN_FILES = "select path, file_size, modified, fingerprint, phash from image";
+    private static final String SELECT_BY_HASH =
+            "select id, path, file_size, modified, fingerprint, phash from image where hash_lo = ? and hash_hi = ?";
+    private static final String IMAGE_COLUMNS =
+            "select id, path, file_size, modified, fingerprint, phash, hash_lo, hash_hi from image ";
+    private static final int IDS_PER_QUERY = 64;
+    private static final String SELECT_BY_IDS =
+            IMAGE_COLUMNS + "where id in (" + String.join(", ", Collections.nCopies(IDS_PER_QUERY, "?")) + ")";
+    private static final String SELECT_BY_PATH =
+            "select id, hash_lo, hash_hi, file_size, modified, fingerprint, phash from image where path = ?";
+    private static final String COUNT_BY_PATH = "select count(*) from image where path = ?";
+    private static final String SELECT_IDS_BY_PATH = "select id from image where path = ?";
+    private static final int PATHS_PER_QUERY = 64;
+    private static final String SELECT_IDS_BY_PATHS =
+            "select id from image where path in (" + String.join(", ", Collections.nCopies(PATHS_PER_QUERY, "?")) + ")";
+    private static final String DELETE_PATH = "delete from image where path = ?";
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final String UPDATE_STAMP =
+            "update image set file_size = ?, modified = ?, fingerprint = ? where path = ?";
+    private static final String UPDATE_PATH =
+            "update image set path = ?, file_size = ?, modified = ?, fingerprint = ? where path = ?";
+
+    private final ConnectionPool pool;
+    private final ThumbnailCache thumbnails;
+    private volatile HashIndexSnapshot snapshot;
 
     @Inject
     public ImageDatabase(final Connection db, final Flyway flyway) {
+        this(db, flyway, ThumbnailCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates database using single connection
+     *
+     * @param db                  Database connection
+     * @param flyway              Schema migrations
+     * @param thumbnailCacheBytes Maximum size of decoded thumbnails kept in memory
+     */
+    public ImageDatabase(final Connection db, final Flyway flyway, final long thumbnailCacheBytes) {
+        this(db, flyway, thumbnailCacheBytes, null);
+    }
+
+    /**
+     * Creates database which keeps image hashes in a snapshot file, so that they can be loaded without querying the
+     * database. Snapshot which does not match the database is rebuilt
+     *
+     * @param db                  Database connection
+     * @param flyway              Schema migrations
+     * @param thumbnailCacheBytes Maximum size of decoded thumbnails kept in memory
+     * @param snapshotFile        Hash index snapshot file, or {@code null} to always load hashes from the database
+     */
+    public ImageDatabase(final Connection db, final Flyway flyway, final long thumbnailCacheBytes,
+                         final Path snapshotFile) {
+        this(ConnectionPool.of(db), flyway, thumbnailCacheBytes, snapshotFile);
+    }
+
+    /**
+     * Creates database which uses pooled connections, see
+     * {@link #ImageDatabase(Connection, Flyway, long, Path)}
+     *
+     * @param pool                Database connections
+     * @param flyway              Schema migrations
+     * @param thumbnailCacheBytes Maximum size of decoded thumbnails kept in memory
+     * @param snapshotFile        Hash index snapshot file, or {@code null} to always load hashes from the database
+     */
+    public ImageDatabase(final ConnectionPool pool, final Flyway flyway, final long thumbnailCacheBytes,
+                         final Path snapshotFile) {
         flyway.migrate();
-        this.connection = db;
+        this.pool = pool;
+        this.thumbnails = new ThumbnailCache(this::readThumbnail, thumbnailCacheBytes);
+        if (snapshotFile != null) {
+            this.snapshot = openSnapshot(snapshotFile);
+        }
+    }
+
+    public void insertImage(final SimImage simImage) {
+        try {
+            insertImages(Collections.singletonList(simImage), true);
+        } catch (final ImageDatabaseException ex) {
+            throw new ImageDatabaseException("Failed to insert image " + simImage, ex.getCause());
+        }
+    }
+
+    /**
+     * Inserts all images with their thumbnails as a single JDBC batch in one transaction
+     *
+     * @param images Images to insert
+     */
+    public void insertImages(final Collection<SimImage> images) {
+        insertImages(images, true);
+    }
+
+    /**
+     * Inserts all images as a single JDBC batch in one transaction
+     *
+     * @param images         Images to insert
+     * @param withThumbnails Whether thumbnails should be stored
+     */
+    public void insertImages(final Collection<SimImage> images, final boolean withThumbnails) {
+        storeImages(images, withThumbnails, false);
+    }
+
+    /**
+     * Replaces stored images which have the same paths as given images, or inserts images which are not stored yet.
+     * Old rows are deleted and new ones inserted in the same transaction, so that an image is never missing from the
+     * database, and old rows stay if the batch fails
+     *
+     * @param images         Images to store
+     * @param withThumbnails Whether thumbnails should be stored
+     */
+    public void replaceImages(final Collection<SimImage> images, final boolean withThumbnails) {
+        storeImages(images, withThumbnails, true);
+    }
+
+    private void storeImages(final Collection<SimImage> images, final boolean withThumbnails, final boolean replace) {
+        if (images.isEmpty()) {
+            return;
+        }
+        try {
+            final HashIndexSnapshot currentSnapshot = this.snapshot;
+            final long[] ids;
+            final long[] replacedIds;
+            try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+                final Connection connection = pooled.getConnection();
+                final PreparedStatement insertImage = pooled.prepareInsert(INSERT_IMAGE);
+                final PreparedStatement insertThumbnail = pooled.prepare(INSERT_THUMBNAIL);
+                final boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    final long start = System.nanoTime();
+                    replacedIds = replace
+                            ? deletePaths(pooled, images.stream().map(image -> image.getPath().toString())
+                            .distinct().collect(Collectors.toList()))
+                            : new long[0];
+                    for (final SimImage simImage : images) {
+                        setInsertParameters(insertImage, simImage);
+                        insertImage.addBatch();
+                    }
+                    insertImage.executeBatch();
+                    ids = withThumbnails || currentSnapshot != null ? readGeneratedIds(insertImage, images) : null;
+                    final long thumbnailsStart = INSERT_TIMER.stop(start);
+                    if (withThumbnails) {
+                        insertThumbnails(insertThumbnail, images, ids);
+                        INSERT_THUMBNAILS_TIMER.stop(thumbnailsStart);
+                    }
+                    commit(connection);
+                } catch (final Exception ex) {
+                    quietClearBatch(insertImage);
+                    quietClearBatch(insertThumbnail);
+                    quietRollback(connection);
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            INSERTED_IMAGES.add(images.size());
+            forgetImages(replacedIds);
+            if (currentSnapshot != null) {
+                appendToSnapshot(currentSnapshot, images, ids);
+            }
+        } catch (final Exception ex) {
+            throw failure(INSERT_TIMER, "Failed to insert batch of " + images.size() + " images", ex);
+        }
+    }
+
+    private static void setInsertParameters(final PreparedStatement statement, final SimImage simImage)
+            throws SQLException {
+        final HashBits bits = simImage.getSignature().getBits();
+        statement.setLong(1, bits.word(0));
+        statement.setLong(2, bits.word(1));
+        final Optional<ImageHash> perceptual = simImage.getSignature(HashAlgorithm.PHash);
+        if (perceptual.isPresent()) {
+            statement.setLong(3, perceptual.get().getBits().word(0));
+        } else {
+            statement.setNull(3, Types.BIGINT);
+        }
+        statement.setString(4, simImage.getPath().toString());
+        setStampParameters(statement, 5, simImage.getFileStamp());
+    }
+
+    /**
+     * @return Ids generated for just inserted images, in the order of images
+     */
+    private static long[] readGeneratedIds(final PreparedStatement statement, final Collection<SimImage> images)
+            throws SQLException {
+        final long[] ids = new long[images.size()];
+        try (final ResultSet keys = statement.getGeneratedKeys()) {
+            int index = 0;
+            for (final SimImage simImage : images) {
+                if (!keys.next()) {
+                    throw new SQLException("Missing generated id for image " + simImage);
+                }
+                ids[index++] = keys.getLong(1);
+            }
+        }
+        return ids;
+    }
 
+    /**
+     * Stores thumbnails of just inserted images, using ids generated for them
+     */
+    private static void insertThumbnails(final PreparedStatement statement, final Collection<SimImage> images,
+                                         final long[] ids) throws SQLException {
+        int index = 0;
+        for (final SimImage simImage : images) {
+            statement.setLong(1, ids[index++]);
+            statement.setBlob(2, simImage.getThumbnailBlob());
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    private void appendToSnapshot(final HashIndexSnapshot currentSnapshot, final Collection<SimImage> images,
+                                  final long[] ids) {
+        final HashArena arena = new HashArena(ids.length);
+        int index = 0;
+        for (final SimImage simImage : images) {
+            arena.add(ids[index++], simImage.getSignatures());
+        }
         try {
-            this.insertStatement = db.prepareStatement("insert into image values(?, ?, ?)");
-            this.selectHashes = db.prepareStatement("select distinct(hash) from image");
-            this.selectPaths = db.prepareStatement("select distinct(path) from image");
-            this.selectByHash = db.prepareStatement("select path, thumbnail from image where hash = ?");
-            this.selectByPath = db.prepareStatement("select hash, thumbnail from image where path = ?");
-            this.countByPath = db.prepareStatement("select count(*) from image where path = ?");
-            this.deletePath = db.prepareStatement("delete from image where path = ?");
+            currentSnapshot.append(arena);
+        } catch (final IOException ex) {
+            discardSnapshot(currentSnapshot, ex);
+        }
+    }
+
+    /**
+     * Opens hash index snapshot and checks that it has the same number of images and the same last image id as the
+     * database, otherwise rebuilds it from the database
+     */
+    private HashIndexSnapshot openSnapshot(final Path file) {
+        final long count;
+        final long maxId;
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire();
+             final ResultSet resultSet = pooled.prepare(SELECT_IMAGE_COUNT).executeQuery()) {
+            resultSet.next();
+            count = resultSet.getLong(1);
+            maxId = resultSet.getLong(2);
+        } catch (final SQLException ex) {
+            throw new ImageDatabaseException("Failed to read image count", ex);
+        }
+        final Optional<HashIndexSnapshot> existing = HashIndexSnapshot.open(file);
+        if (existing.isPresent()) {
+            if (existing.get().size() == count && existing.get().getMaxId() == maxId) {
+                return existing.get();
+            }
+            LOGGER.info("Hash index snapshot {} is out of date", file);
+            try {
+                existing.get().close();
+            } catch (final IOException ignored) {
+
+            }
+        }
+        return rebuildSnapshot(file);
+    }
+
+    private HashIndexSnapshot rebuildSnapshot(final Path file) {
+        LOGGER.info("Rebuilding hash index snapshot {}", file);
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire();
+             final ResultSet resultSet = pooled.prepare(SELECT_HASH_ARENA).executeQuery()) {
+            final HashIndexSnapshot rebuilt = HashIndexSnapshot.create(file);
+            HashArena chunk = new HashArena(SNAPSHOT_REBUILD_CHUNK);
+            while (resultSet.next()) {
+                addToArena(chunk, resultSet);
+                if (chunk.size() == SNAPSHOT_REBUILD_CHUNK) {
+                    rebuilt.append(chunk);
+                    chunk = new HashArena(SNAPSHOT_REBUILD_CHUNK);
+                }
+            }
+            rebuilt.append(chunk);
+            return rebuilt;
+        } catch (final IOException ex) {
+            LOGGER.warn("Failed to write hash index snapshot {}, hashes will be loaded from database", file, ex);
+            return null;
         } catch (final SQLException ex) {
-            throw new ImageDatabaseException("Failed to create prepared statements", ex);
+            throw new ImageDatabaseException("Failed to load hashes", ex);
+        }
+    }
+
+    /**
+     * Stops using snapshot which could not be updated and removes it, so that it is rebuilt on next start
+     */
+    private synchronized void discardSnapshot(final HashIndexSnapshot failed, final IOException cause) {
+        if (this.snapshot != failed) {
+            return;
         }
+        final Path file = failed.getFile();
+        LOGGER.warn("Failed to update hash index snapshot {}, hashes will be loaded from database", file, cause);
+        try {
+            failed.close();
+            Files.deleteIfExists(file);
+        } catch (final IOException ignored) {
+
+        }
+        this.snapshot = null;
+    }
+
+    /**
+     * Loads stored thumbnail of an image. Recently used thumbnails are taken from cache
+     *
+     * @param imageId Image id
+     * @return Decoded thumbnail, if it was stored
+     */
+    public Optional<BufferedImage> loadThumbnail(final long imageId) {
+        return this.thumbnails.get(imageId);
+    }
+
+    /**
+     * Loads stored thumbnail of an image in background. Recently used thumbnails are taken from cache
+     *
+     * @param imageId Image id
+     * @return Future decoded thumbnail, empty if it was not stored
+     */
+    public CompletableFuture<Optional<BufferedImage>> loadThumbnailAsync(final long imageId) {
+        return this.thumbnails.getAsync(imageId);
+    }
+
+    /**
+     * @return Hit, miss and eviction statistics of thumbnail cache
+     */
+    public CacheStats getThumbnailCacheStats() {
+        return this.thumbnails.stats();
     }
 
-    public synchronized void insertImage(final SimImage simImage) {
+    private Optional<BufferedImage> readThumbnail(final long imageId) {
         try {
-            this.insertStatement.setString(1, simImage.getSignature().getSignature().toString());
-            this.insertStatement.setString(2, simImage.getPath().toString());
-            this.insertStatement.setBlob(3, simImage.getThumbnailBlob());
-            this.insertStatement.execute();
-            this.connection.commit();
+            final long start = System.nanoTime();
+            final byte[] data;
+            try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+                final PreparedStatement statement = pooled.prepare(SELECT_THUMBNAIL);
+                statement.setLong(1, imageId);
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    data = resultSet.next() ? resultSet.getBytes(1) : null;
+                }
+            }
+            SELECT_THUMBNAIL_TIMER.stop(start);
+            if (data == null) {
+                return Optional.empty();
+            }
+            final BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(data));
+            if (thumbnail == null) {
+                throw new IOException("Unsupported thumbnail format");
+            }
+            return Optional.of(thumbnail);
+        } catch (final SQLException | IOException ex) {
+            throw failure(SELECT_THUMBNAIL_TIMER, "Failed to load thumbnail of image " + imageId, ex);
+        }
+    }
+
+    private static void setStampParameters(final PreparedStatement statement, final int column,
+                                           final FileStamp stamp) throws SQLException {
+        if (stamp.isKnown()) {
+            statement.setLong(column, stamp.getSize());
+            statement.setLong(column + 1, stamp.getLastModified());
+        } else {
+            statement.setNull(column, Types.BIGINT);
+            statement.setNull(column + 1, Types.BIGINT);
+        }
+        final OptionalLong fingerprint = stamp.getFingerprint();
+        if (fingerprint.isPresent()) {
+            statement.setLong(column + 2, fingerprint.getAsLong());
+        } else {
+            statement.setNull(column + 2, Types.BIGINT);
+        }
+    }
+
+    /**
+     * Updates file stamp of an image whose file was touched but whose content did not change
+     *
+     * @param path  Image path
+     * @param stamp New file stamp
+     */
+    public void updateFileStamp(final Path path, final FileStamp stamp) {
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try {
+                final long start = System.nanoTime();
+                final PreparedStatement statement = pooled.prepare(UPDATE_STAMP);
+                setStampParameters(statement, 1, stamp);
+                statement.setString(4, path.toString());
+                statement.execute();
+                UPDATE_STAMP_TIMER.stop(start);
+                commit(pooled.getConnection());
+            } catch (final SQLException ex) {
+                quietRollback(pooled.getConnection());
+                throw ex;
+            }
         } catch (final Exception ex) {
-            quietRollback();
-            throw new ImageDatabaseException("Failed to insert image " + simImage, ex);
+            throw failure(UPDATE_STAMP_TIMER, "Failed to update file stamp of " + path, ex);
+        }
+    }
+
+    /**
+     * Points stored image to the new location of a moved file, keeping its hash and thumbnail
+     *
+     * @param from  Old image path
+     * @param to    New image path
+     * @param stamp File stamp at the new location
+     * @return {@code true} if image with the old path was found
+     */
+    public boolean moveImage(final Path from, final Path to, final FileStamp stamp) {
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try {
+                final long start = System.nanoTime();
+                final PreparedStatement statement = pooled.prepare(UPDATE_PATH);
+                statement.setString(1, to.toString());
+                setStampParameters(statement, 2, stamp);
+                statement.setString(5, from.toString());
+                final boolean moved = statement.executeUpdate() > 0;
+                MOVE_TIMER.stop(start);
+                commit(pooled.getConnection());
+                return moved;
+            } catch (final SQLException ex) {
+                quietRollback(pooled.getConnection());
+                throw ex;
+            }
+        } catch (final Exception ex) {
+            throw failure(MOVE_TIMER, "Failed to move image from " + from + " to " + to, ex);
+        }
+    }
+
+    private static void commit(final Connection connection) throws SQLException {
+        final long start = System.nanoTime();
+        connection.commit();
+        COMMIT_TIMER.stop(start);
+    }
+
+    /**
+     * Counts failure of a statement
+     *
+     * @param timer   Timer of the statement, its name is used as name of the failed operation
+     * @param message Error message
+     * @param cause   Exception thrown by the statement
+     * @return Exception to throw
+     */
+    private static ImageDatabaseException failure(final LatencyTimer timer, final String message,
+                                                  final Exception cause) {
+        METRICS.failed(timer.getName(), cause);
+        return new ImageDatabaseException(message, cause);
+    }
+
+    private static void quietRollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (final SQLException ignored) {
+
         }
     }
 
-    private void quietRollback() {
+    private static void quietClearBatch(final PreparedStatement statement) {
         try {
-            this.connection.rollback();
+            statement.clearBatch();
         } catch (final SQLException ignored) {
 
         }
     }
 
+    /**
+     * Loads all distinct image hashes, from hash index snapshot if database has one
+     *
+     * @return Image hashes
+     */
     public Collection<ImageHash> loadHashes() {
-        try {
-            try (final ResultSet resultSet = this.selectHashes.executeQuery()) {
+        final long start = System.nanoTime();
+        if (this.snapshot != null) {
+            final HashArena arena = loadHashArena();
+            final Set<ImageHash> hashes = new LinkedHashSet<>();
+            for (int slot = 0; slot < arena.size(); slot++) {
+                hashes.add(arena.hash(slot));
+            }
+            LOAD_HASHES_TIMER.stop(start);
+            return ImmutableList.copyOf(hashes);
+        }
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try (final ResultSet resultSet = pooled.prepare(SELECT_HASHES).executeQuery()) {
                 final ImmutableList.Builder<ImageHash> builder = ImmutableList.builder();
                 while (resultSet.next()) {
-                    final BigInteger hash = new BigInteger(resultSet.getString(1));
-                    builder.add(new ImageHash(hash));
+                    builder.add(readHash(resultSet, 1));
                 }
+                LOAD_HASHES_TIMER.stop(start);
                 return builder.build();
             }
         } catch (final Exception ex) {
-            throw new ImageDatabaseException("Failed to load hashes", ex);
+            throw failure(LOAD_HASHES_TIMER, "Failed to load hashes", ex);
+        }
+    }
+
+    /**
+     * Loads hashes of all images with their ids into a {@link HashArena}, from hash index snapshot if database has one
+     *
+     * @return Image hashes and ids, one slot per image
+     */
+    public HashArena loadHashArena() {
+        final long start = System.nanoTime();
+        final HashIndexSnapshot currentSnapshot = this.snapshot;
+        if (currentSnapshot != null) {
+            try {
+                final HashArena arena = new HashArena((int) currentSnapshot.size());
+                currentSnapshot.forEach(arena::add);
+                LOAD_HASH_ARENA_TIMER.stop(start);
+                return arena;
+            } catch (final IOException ex) {
+                discardSnapshot(currentSnapshot, ex);
+            }
+        }
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try (final ResultSet resultSet = pooled.prepare(SELECT_HASH_ARENA).executeQuery()) {
+                final HashArena arena = new HashArena();
+                while (resultSet.next()) {
+                    addToArena(arena, resultSet);
+                }
+                LOAD_HASH_ARENA_TIMER.stop(start);
+                return arena;
+            }
+        } catch (final Exception ex) {
+            throw failure(LOAD_HASH_ARENA_TIMER, "Failed to load hashes", ex);
+        }
+    }
+
+    /**
+     * Adds row of id, difference hash words and perceptual hash to the arena
+     */
+    private static void addToArena(final HashArena arena, final ResultSet resultSet) throws SQLException {
+        final long id = resultSet.getLong(1);
+        final long hashLo = resultSet.getLong(2);
+        final long hashHi = resultSet.getLong(3);
+        final long perceptual = resultSet.getLong(4);
+        if (resultSet.wasNull()) {
+            arena.add(id, hashLo, hashHi);
+        } else {
+            arena.add(id, hashLo, hashHi, perceptual);
         }
     }
 
     public void delete(final Path path) {
-        try {
-            this.deletePath.setString(1, path.toString());
-            this.deletePath.execute();
-            this.connection.commit();
+        final long[] ids;
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try {
+                final long start = System.nanoTime();
+                ids = selectIds(pooled, path);
+                final PreparedStatement statement = pooled.prepare(DELETE_PATH);
+                statement.setString(1, path.toString());
+                statement.execute();
+                DELETE_TIMER.stop(start);
+                commit(pooled.getConnection());
+            } catch (final SQLException ex) {
+                quietRollback(pooled.getConnection());
+                throw ex;
+            }
         } catch (final Exception ex) {
-            quietRollback();
-            throw new ImageDatabaseException("Failed to delete by path " + path, ex);
+            throw failure(DELETE_TIMER, "Failed to delete by path " + path, ex);
         }
+        forgetImages(ids);
     }
 
-    public Collection<Path> loadPaths() {
+    /**
+     * Deletes images with any of given paths in one transaction. Ids of deleted images are looked up
+     * {@value #PATHS_PER_QUERY} paths per query and rows are deleted in JDBC batches of {@value #DELETE_BATCH_SIZE}
+     *
+     * @param paths Image paths
+     * @return Number of deleted images
+     */
+    public int deleteAll(final Collection<Path> paths) {
+        if (paths.isEmpty()) {
+            return 0;
+        }
+        final List<String> distinct = paths.stream().map(Path::toString).distinct().collect(Collectors.toList());
+        final long[] ids;
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            final Connection connection = pooled.getConnection();
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                final long start = System.nanoTime();
+                ids = deletePaths(pooled, distinct);
+                DELETE_ALL_TIMER.stop(start);
+                commit(connection);
+            } catch (final Exception ex) {
+                quietRollback(connection);
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (final Exception ex) {
+            throw failure(DELETE_ALL_TIMER, "Failed to delete " + distinct.size() + " paths", ex);
+        }
+        forgetImages(ids);
+        return ids.length;
+    }
+
+    /**
+     * Deletes images with given paths in JDBC batches without committing
+     *
+     * @return Ids of deleted images
+     */
+    private static long[] deletePaths(final ConnectionPool.PooledConnection pooled, final List<String> paths)
+            throws SQLException {
+        final long[] ids = selectIds(pooled, paths);
+        final PreparedStatement statement = pooled.prepare(DELETE_PATH);
         try {
-            try (final ResultSet resultSet = this.selectPaths.executeQuery()) {
+            for (int i = 0; i < paths.size(); i++) {
+                statement.setString(1, paths.get(i));
+                statement.addBatch();
+                if ((i + 1) % DELETE_BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        } catch (final SQLException ex) {
+            quietClearBatch(statement);
+            throw ex;
+        }
+        return ids;
+    }
+
+    /**
+     * Removes deleted images from thumbnail cache and hash index snapshot
+     */
+    private void forgetImages(final long[] ids) {
+        for (final long id : ids) {
+            this.thumbnails.invalidate(id);
+        }
+        final HashIndexSnapshot currentSnapshot = this.snapshot;
+        if (currentSnapshot != null) {
+            try {
+                currentSnapshot.delete(ids);
+            } catch (final IOException ex) {
+                discardSnapshot(currentSnapshot, ex);
+            }
+        }
+    }
+
+    private static long[] selectIds(final ConnectionPool.PooledConnection pooled, final Path path)
+            throws SQLException {
+        final PreparedStatement statement = pooled.prepare(SELECT_IDS_BY_PATH);
+        statement.setString(1, path.toString());
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            final List<Long> ids = new ArrayList<>();
+            while (resultSet.next()) {
+                ids.add(resultSet.getLong(1));
+            }
+            return ids.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    /**
+     * Selects ids of images with given paths, padding the last query by repeating a path
+     */
+    private static long[] selectIds(final ConnectionPool.PooledConnection pooled, final List<String> paths)
+            throws SQLException {
+        final PreparedStatement statement = pooled.prepare(SELECT_IDS_BY_PATHS);
+        final List<Long> ids = new ArrayList<>();
+        for (int first = 0; first < paths.size(); first += PATHS_PER_QUERY) {
+            for (int i = 0; i < PATHS_PER_QUERY; i++) {
+                statement.setString(i + 1, paths.get(Math.min(first + i, paths.size() - 1)));
+            }
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    public Collection<Path> loadPaths() {
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try (final ResultSet resultSet = pooled.prepare(SELECT_PATHS).executeQuery()) {
                 final ImmutableList.Builder<Path> builder = ImmutableList.builder();
                 while (resultSet.next()) {
                     builder.add(Paths.get(resultSet.getString(1)));
                 }
+                LOAD_PATHS_TIMER.stop(start);
                 return builder.build();
             }
         } catch (final Exception ex) {
-            throw new ImageDatabaseException("Failed to load paths", ex);
+            throw failure(LOAD_PATHS_TIMER, "Failed to load paths", ex);
         }
     }
 
+    /**
+     * Loads all images with given difference hash
+     *
+     * @param hash Difference hash
+     * @return Images with the hash
+     */
     public List<SimImage> loadByHash(final ImageHash hash) {
-        try {
-            this.selectByHash.setString(1, hash.getSignature().toString());
-            try (final ResultSet resultSet = this.selectByHash.executeQuery()) {
+        Preconditions.checkArgument(hash.getAlgorithm() == HashAlgorithm.DHash, "Images are looked up by difference hash");
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            final PreparedStatement statement = pooled.prepare(SELECT_BY_HASH);
+            statement.setLong(1, hash.getBits().word(0));
+            statement.setLong(2, hash.getBits().word(1));
+            try (final ResultSet resultSet = statement.executeQuery()) {
                 final ImmutableList.Builder<SimImage> builder = ImmutableList.builder();
                 while (resultSet.next()) {
-                    final Path path = Paths.get(resultSet.getString(1));
-                    try (InputStream is = resultSet.getBlob(2).getBinaryStream()) {
-                        builder.add(new SimImage(path, hash, is));
-                    }
+                    final long id = resultSet.getLong(1);
+                    final Path path = Paths.get(resultSet.getString(2));
+                    final FileStamp stamp = readStamp(resultSet, 3);
+                    builder.add(new SimImage(path, readSignatures(hash, resultSet, 6), stamp,
+                            () -> loadThumbnailAsync(id)));
                 }
+                LOAD_BY_HASH_TIMER.stop(start);
                 return builder.build();
             }
         } catch (final Exception ex) {
-            throw new ImageDatabaseException("Failed to load by hash " + hash.toString(), ex);
+            throw failure(LOAD_BY_HASH_TIMER, "Failed to load by hash " + hash.toString(), ex);
         }
     }
 
-    public Optional<SimImage> loadByPath(final Path path) throws SQLException, IOException {
-        this.selectByPath.setString(1, path.toString());
-        try (final ResultSet resultSet = this.selectByPath.executeQuery()) {
-            if (resultSet.next()) {
-                final ImageHash hash = new ImageHash(new BigInteger(resultSet.getString(1)));
-                try (InputStream is = resultSet.getBlob(2).getBinaryStream()) {
-                    return Optional.of(new SimImage(path, hash, is));
+    /**
+     * Loads images by their ids. Ids are looked up {@value #IDS_PER_QUERY} at a time with one query, the last query
+     * is padded by repeating an id. Thumbnails are loaded only when they are requested from the images
+     *
+     * @param ids Image ids
+     * @return Images in the order of given ids, without images which no longer exist
+     */
+    public List<SimImage> loadByIds(final long[] ids) {
+        final Map<Long, SimImage> found = new HashMap<>();
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            final PreparedStatement statement = pooled.prepare(SELECT_BY_IDS);
+            for (int first = 0; first < ids.length; first += IDS_PER_QUERY) {
+                for (int i = 0; i < IDS_PER_QUERY; i++) {
+                    statement.setLong(i + 1, ids[Math.min(first + i, ids.length - 1)]);
                 }
-            } else {
-                return Optional.empty();
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.put(resultSet.getLong(1), readImage(resultSet));
+                    }
+                }
+            }
+            LOAD_BY_IDS_TIMER.stop(start);
+        } catch (final Exception ex) {
+            throw failure(LOAD_BY_IDS_TIMER, "Failed to load " + ids.length + " images by id", ex);
+        }
+        final ImmutableList.Builder<SimImage> builder = ImmutableList.builder();
+        for (final long id : ids) {
+            final SimImage image = found.remove(id);
+            if (image != null) {
+                builder.add(image);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads image from a row of {@link #IMAGE_COLUMNS}
+     */
+    private SimImage readImage(final ResultSet resultSet) throws SQLException {
+        final long id = resultSet.getLong(1);
+        final Path path = Paths.get(resultSet.getString(2));
+        final FileStamp stamp = readStamp(resultSet, 3);
+        final ImageHash hash = readHash(resultSet, 7);
+        return new SimImage(path, readSignatures(hash, resultSet, 6), stamp, () -> loadThumbnailAsync(id));
+    }
+
+    public Optional<SimImage> loadByPath(final Path path) throws SQLException {
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            final PreparedStatement statement = pooled.prepare(SELECT_BY_PATH);
+            statement.setString(1, path.toString());
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                final Optional<SimImage> image;
+                if (resultSet.next()) {
+                    final long id = resultSet.getLong(1);
+                    final ImageHash hash = readHash(resultSet, 2);
+                    final FileStamp stamp = readStamp(resultSet, 4);
+                    image = Optional.of(new SimImage(path, readSignatures(hash, resultSet, 7), stamp,
+                            () -> loadThumbnailAsync(id)));
+                } else {
+                    image = Optional.empty();
+                }
+                LOAD_BY_PATH_TIMER.stop(start);
+                return image;
+            }
+        } catch (final SQLException ex) {
+            METRICS.failed(LOAD_BY_PATH_TIMER.getName(), ex);
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Loads all known image paths with their file stamps and whether they have perceptual hash in one query
+     *
+     * @return Known files
+     */
+    public KnownFiles loadKnownFiles() {
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            try (final ResultSet resultSet = pooled.prepare(SELECT_KNOWN_FILES).executeQuery()) {
+                final Map<String, FileStamp> files = new HashMap<>();
+                final Set<String> withoutPerceptualHash = new HashSet<>();
+                while (resultSet.next()) {
+                    final String path = resultSet.getString(1);
+                    files.put(path, readStamp(resultSet, 2));
+                    resultSet.getLong(5);
+                    if (resultSet.wasNull()) {
+                        withoutPerceptualHash.add(path);
+                    }
+                }
+                LOAD_KNOWN_FILES_TIMER.stop(start);
+                return new KnownFiles(files, withoutPerceptualHash);
             }
+        } catch (final Exception ex) {
+            throw failure(LOAD_KNOWN_FILES_TIMER, "Failed to load known files", ex);
         }
     }
 
+    private static FileStamp readStamp(final ResultSet resultSet, final int column) throws SQLException {
+        final long size = resultSet.getLong(column);
+        final boolean known = !resultSet.wasNull();
+        final long lastModified = resultSet.getLong(column + 1);
+        final long fingerprint = resultSet.getLong(column + 2);
+        final Long storedFingerprint = resultSet.wasNull() ? null : fingerprint;
+        return known
+                ? new FileStamp(size, lastModified, storedFingerprint)
+                : new FileStamp(-1, -1, storedFingerprint);
+    }
+
+    /**
+     * @return Difference hash with perceptual hash read from given column, if it was stored
+     */
+    private static List<ImageHash> readSignatures(final ImageHash hash, final ResultSet resultSet,
+                                                  final int perceptualColumn) throws SQLException {
+        final long perceptual = resultSet.getLong(perceptualColumn);
+        return resultSet.wasNull()
+                ? ImmutableList.of(hash)
+                : ImmutableList.of(hash, new ImageHash(HashAlgorithm.PHash, HashBits.of(perceptual)));
+    }
+
+    private static ImageHash readHash(final ResultSet resultSet, final int column) throws SQLException {
+        return new ImageHash(HashBits.of(resultSet.getLong(column), resultSet.getLong(column + 1)));
+    }
 
     public boolean exists(final Path path) {
-        try {
-            this.countByPath.setString(1, path.toString());
-            try (final ResultSet resultSet = this.countByPath.executeQuery()) {
-                return resultSet.next() && resultSet.getInt(1) > 0;
+        final long start = System.nanoTime();
+        try (final ConnectionPool.PooledConnection pooled = this.pool.acquire()) {
+            final PreparedStatement statement = pooled.prepare(COUNT_BY_PATH);
+            statement.setString(1, path.toString());
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                final boolean exists = resultSet.next() && resultSet.getInt(1) > 0;
+                EXISTS_TIMER.stop(start);
+                return exists;
             }
         } catch (final SQLException e) {
-            throw new ImageDatabaseException("Failed to check for existence of image " + path, e);
+            throw failure(EXISTS_TIMER, "Failed to check for existence of image " + path, e);
         }
 
     }
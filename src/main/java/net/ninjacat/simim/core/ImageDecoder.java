@@ -0,0 +1,87 @@
+package net.ninjacat.simim.core;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Decodes images at reduced resolution.
+ * <p>
+ * Image reader is asked to skip source pixels with {@link ImageReadParam#setSourceSubsampling(int, int, int, int)},
+ * so that only the pixels needed to build thumbnail and signature are converted and kept in memory. Subsampling
+ * factor is chosen so that the longer side of decoded image is not smaller than requested size and the shorter side
+ * is not smaller than {@link #MIN_SIDE}.
+ */
+public final class ImageDecoder {
+
+    /**
+     * Minimum size of the shorter side of a decoded image, enough for any of the hash algorithms
+     */
+    static final int MIN_SIDE = 32;
+
+    private static final LatencyTimer DECODE_TIMER = Metrics.global().timer("image.decode");
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes image, skipping source pixels which are not needed to produce image of given size
+     *
+     * @param input      Encoded image
+     * @param targetSize Minimum size of the longer side of decoded image
+     * @return Decoded image
+     */
+    public static BufferedImage decode(final InputStream input, final int targetSize) throws IOException {
+        try (final ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Cannot read image stream");
+            }
+            return decode(stream, targetSize);
+        }
+    }
+
+    /**
+     * Decodes image directly from a buffer, skipping source pixels which are not needed to produce image of given size
+     *
+     * @param input      Encoded image between buffer position and limit
+     * @param targetSize Minimum size of the longer side of decoded image
+     * @return Decoded image
+     */
+    public static BufferedImage decode(final ByteBuffer input, final int targetSize) throws IOException {
+        try (final ImageInputStream stream = new ByteBufferImageInputStream(input)) {
+            return decode(stream, targetSize);
+        }
+    }
+
+    private static BufferedImage decode(final ImageInputStream stream, final int targetSize) throws IOException {
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+        final ImageReader reader = readers.next();
+        final long start = System.nanoTime();
+        try {
+            reader.setInput(stream, true, true);
+            final int subsampling = subsampling(reader.getWidth(0), reader.getHeight(0), targetSize);
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            final BufferedImage image = reader.read(0, param);
+            DECODE_TIMER.stop(start);
+            return image;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    static int subsampling(final int width, final int height, final int targetSize) {
+        final int longSide = Math.max(width, height);
+        final int shortSide = Math.min(width, height);
+        return Math.max(1, Math.min(longSide / targetSize, shortSide / MIN_SIDE));
+    }
+}
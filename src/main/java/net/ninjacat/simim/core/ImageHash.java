@@ -2,61 +2,128 @@ package net.ninjacat.simim.core;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import javafx.scene.image.Image;
+import com.google.common.base.Preconditions;
 
+import java.awt.image.BufferedImage;
 import java.math.BigInteger;
-import java.util.BitSet;
 import java.util.Objects;
-import java.util.stream.IntStream;
 
 import static net.ninjacat.simim.core.HashAlgorithm.DHash;
 
 /**
- * Calculates image perceptual hash using difference hash (see http://www.hackerfactor.com/blog/index.php?/archives/529-Kind-of-Like-That.html)
+ * Image perceptual hash calculated with one of {@link HashAlgorithm}s, difference hash by default
+ * (see http://www.hackerfactor.com/blog/index.php?/archives/529-Kind-of-Like-That.html)
  */
 public class ImageHash {
 
-    private final BitSet signature;
+    private final HashAlgorithm algorithm;
+    private final HashBits bits;
 
     /**
      * Constructor for JSON deserialization
      * @param signature Signature JSON field
+     * @param algorithm Algorithm JSON field, difference hash if missing
      */
     @SuppressWarnings("WeakerAccess")
     @JsonCreator
-    public ImageHash(@JsonProperty("signature") final BigInteger signature) {
-        this.signature = BitSet.valueOf(signature.toByteArray());
+    public ImageHash(@JsonProperty("signature") final BigInteger signature,
+                     @JsonProperty("algorithm") final HashAlgorithm algorithm) {
+        this.algorithm = algorithm == null ? DHash : algorithm;
+        this.bits = HashBits.fromBigInteger(signature, this.algorithm.hashSize());
     }
 
+    public ImageHash(final BigInteger signature) {
+        this(signature, DHash);
+    }
+
+    ImageHash(final HashBits bits) {
+        this(DHash, bits);
+    }
+
+    ImageHash(final HashAlgorithm algorithm, final HashBits bits) {
+        Preconditions.checkArgument(bits.size() == algorithm.hashSize(),
+                "%s hash must have %s bits", algorithm, algorithm.hashSize());
+        this.algorithm = algorithm;
+        this.bits = bits;
+    }
+
+    ImageHash(final BufferedImage image) {
+        this(DHash, image);
+    }
 
-    ImageHash(final Image image) {
-        this.signature = DHash.signature(image);
+    ImageHash(final HashAlgorithm algorithm, final BufferedImage image) {
+        this(algorithm, algorithm.signature(image));
     }
 
     /**
-     * @return The
+     * @return The signature as non-negative number
      */
     public BigInteger getSignature() {
-        return new BigInteger(this.signature.toByteArray());
+        return this.bits.toBigInteger();
+    }
+
+    /**
+     * @return Algorithm which calculated the signature
+     */
+    public HashAlgorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * @return Signature bits used for comparison
+     */
+    public HashBits getBits() {
+        return this.bits;
     }
 
     @Override
     public String toString() {
-        return this.signature.toString();
+        return this.algorithm == DHash ? this.bits.toString() : this.algorithm + ":" + this.bits;
     }
 
     /**
      * Calculates similarity between two image signatures. Returns a value in range 0.0 - 1.0 where
      * 1.0 is being the same image and 0.0 is absolutely different images, like black vs white.
      *
-     * @param other The other image signature
+     * @param other The other image signature, calculated by the same algorithm
      * @return similarity index
      */
     public double similarity(final ImageHash other) {
-        final long sameBits = IntStream.range(0, DHash.hashSize())
-                .filter(i -> this.signature.get(i) == other.signature.get(i))
-                .count();
-        return (double) sameBits / DHash.hashSize();
+        return (double) (this.algorithm.hashSize() - distance(other)) / this.algorithm.hashSize();
+    }
+
+    /**
+     * Calculates Hamming distance between two image signatures, i.e. number of bits which are different.
+     *
+     * @param other The other image signature, calculated by the same algorithm
+     * @return Number of different bits
+     */
+    public int distance(final ImageHash other) {
+        Preconditions.checkArgument(this.algorithm == other.algorithm,
+                "Cannot compare %s hash to %s hash", this.algorithm, other.algorithm);
+        return this.bits.distance(other.bits);
+    }
+
+    /**
+     * Converts similarity threshold of difference hashes into maximum Hamming distance, so that
+     * {@code a.similarity(b) > threshold} is the same as {@code a.distance(b) <= maxDistance(threshold)}
+     *
+     * @param threshold Similarity threshold, exclusive
+     * @return Maximum number of different bits, inclusive
+     */
+    public static int maxDistance(final double threshold) {
+        return maxDistance(DHash, threshold);
+    }
+
+    /**
+     * Converts similarity threshold into maximum Hamming distance for hashes calculated by given algorithm
+     *
+     * @param algorithm Hash algorithm
+     * @param threshold Similarity threshold, exclusive
+     * @return Maximum number of different bits, inclusive
+     */
+    public static int maxDistance(final HashAlgorithm algorithm, final double threshold) {
+        return algorithm.hashSize() - (int) Math.floor(threshold * algorithm.hashSize()) - 1;
     }
 
 
@@ -65,11 +132,11 @@ public class ImageHash {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         final ImageHash imageHash = (ImageHash) o;
-        return this.signature.equals(imageHash.signature);
+        return this.algorithm == imageHash.algorithm && this.bits.equals(imageHash.bits);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.signature);
+        return Objects.hash(this.algorithm, this.bits);
     }
 }
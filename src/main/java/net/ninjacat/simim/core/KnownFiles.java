@@ -0,0 +1,69 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Snapshot of all image paths stored in the database together with their file stamps. Loaded once at the start of
+ * a scan, so that checking whether file is already known does not need a database round trip
+ */
+public class KnownFiles {
+
+    private final Map<String, FileStamp> files;
+    private final Set<String> withoutPerceptualHash;
+    private final ListMultimap<Long, String> fingerprints;
+
+    KnownFiles(final Map<String, FileStamp> files, final Set<String> withoutPerceptualHash) {
+        this.files = files;
+        this.withoutPerceptualHash = withoutPerceptualHash;
+        this.fingerprints = MultimapBuilder.hashKeys().arrayListValues(1).build();
+        files.forEach((path, stamp) -> stamp.getFingerprint().ifPresent(fp -> this.fingerprints.put(fp, path)));
+    }
+
+    /**
+     * @param path Image path
+     * @return {@code true} if image with this path is stored in the database
+     */
+    public boolean contains(final Path path) {
+        return this.files.containsKey(path.toString());
+    }
+
+    /**
+     * @param path Image path
+     * @return Stamp of the file at the time it was stored or empty if file is not known
+     */
+    public Optional<FileStamp> getStamp(final Path path) {
+        return Optional.ofNullable(this.files.get(path.toString()));
+    }
+
+    /**
+     * @param path Image path
+     * @return {@code true} if image is stored without perceptual hash, e.g. it was stored by older version
+     */
+    public boolean lacksPerceptualHash(final Path path) {
+        return this.withoutPerceptualHash.contains(path.toString());
+    }
+
+    /**
+     * @param fingerprint Content fingerprint
+     * @return Paths of known files with the given content fingerprint
+     */
+    public List<Path> findByFingerprint(final long fingerprint) {
+        return this.fingerprints.get(fingerprint).stream().map(Paths::get).collect(Collectors.toList());
+    }
+
+    /**
+     * @return Number of known files
+     */
+    public int size() {
+        return this.files.size();
+    }
+}
@@ -0,0 +1,115 @@
+package net.ninjacat.simim.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts of a {@link LatencyTimer} at some moment. Getters are exposed as composite data through JMX
+ */
+public final class LatencySnapshot {
+
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final long[] buckets;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    LatencySnapshot(final long[] buckets, final long totalNanos, final long maxNanos) {
+        this.buckets = buckets;
+        this.count = Arrays.stream(buckets).sum();
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return Number of recorded operations
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return Total time of all operations in milliseconds
+     */
+    public double getTotalMillis() {
+        return this.totalNanos / NANOS_PER_MICRO / 1000;
+    }
+
+    /**
+     * @return Average time of an operation in microseconds
+     */
+    public double getMeanMicros() {
+        return this.count == 0 ? 0 : this.totalNanos / NANOS_PER_MICRO / this.count;
+    }
+
+    /**
+     * @return Approximate median time of an operation in microseconds
+     */
+    public double getP50Micros() {
+        return percentileMicros(0.5);
+    }
+
+    /**
+     * @return Approximate 90th percentile of operation time in microseconds
+     */
+    public double getP90Micros() {
+        return percentileMicros(0.9);
+    }
+
+    /**
+     * @return Approximate 99th percentile of operation time in microseconds
+     */
+    public double getP99Micros() {
+        return percentileMicros(0.99);
+    }
+
+    /**
+     * @return The longest operation since timer was created or reset, in microseconds
+     */
+    public double getMaxMicros() {
+        return this.maxNanos / NANOS_PER_MICRO;
+    }
+
+    /**
+     * @param quantile Quantile, between 0 and 1
+     * @return Upper bound of the bucket containing given quantile of operations, in microseconds, but not more than
+     * the longest operation
+     */
+    public double percentileMicros(final double quantile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            seen += this.buckets[i];
+            if (seen >= rank) {
+                final long upperBound = i == 0 ? 0 : 1L << Math.min(i, Long.SIZE - 2);
+                return Math.min(upperBound, this.maxNanos) / NANOS_PER_MICRO;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Calculates operations recorded between an earlier snapshot and this one. Maximum is not reset between
+     * snapshots, so it is kept from this snapshot
+     *
+     * @param earlier Earlier snapshot of the same timer
+     * @return Difference of the snapshots
+     */
+    public LatencySnapshot since(final LatencySnapshot earlier) {
+        final long[] delta = new long[this.buckets.length];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = Math.max(0, this.buckets[i] - earlier.buckets[i]);
+        }
+        return new LatencySnapshot(delta, Math.max(0, this.totalNanos - earlier.totalNanos), this.maxNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, max=%.1fus",
+                this.count, getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,85 @@
+package net.ninjacat.simim.core;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram which can be updated from many threads without contention.
+ * <p>
+ * Durations are counted in buckets whose bounds are powers of two nanoseconds, so that recording is a bit count and
+ * two {@link LongAdder} increments. Percentiles are therefore approximate, reported as upper bound of the bucket
+ * they fall into, which is within a factor of two of the real value.
+ */
+public final class LatencyTimer {
+
+    static final int BUCKETS = Long.SIZE;
+
+    private final String name;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyTimer(final String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return Name of the timer
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Records time elapsed since given moment
+     *
+     * @param startNanos Value of {@link System#nanoTime()} when operation started
+     * @return Current value of {@link System#nanoTime()}, which can be used as start of the next operation
+     */
+    public long stop(final long startNanos) {
+        final long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Records duration of one operation
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long duration = Math.max(0, nanos);
+        this.buckets[bucket(duration)].increment();
+        this.totalNanos.add(duration);
+        this.maxNanos.accumulate(duration);
+    }
+
+    /**
+     * @return Current counts of the timer
+     */
+    public LatencySnapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return new LatencySnapshot(counts, this.totalNanos.sum(), this.maxNanos.get());
+    }
+
+    void reset() {
+        for (final LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+    }
+
+    /**
+     * @return Index of the bucket holding durations up to {@code 2^index} nanoseconds
+     */
+    static int bucket(final long nanos) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+}
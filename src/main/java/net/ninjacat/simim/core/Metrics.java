@@ -0,0 +1,123 @@
+package net.ninjacat.simim.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency timers, counters and failure counts of scan stages and database statements.
+ * <p>
+ * Instrumented code obtains its timers and counters once, usually into static fields, and updates them with
+ * {@link LongAdder}s, so metrics are cheap enough to be always on. Metrics are read through JMX, see
+ * {@link #registerMBean()}, or logged periodically by {@link MetricsReporter}.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "net.ninjacat.simim:type=Metrics";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+    private static final Metrics GLOBAL = new Metrics();
+
+    private final ConcurrentMap<String, LatencyTimer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    Metrics() {
+    }
+
+    /**
+     * @return Metrics shared by all components of the application
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param name Timer name, e.g. {@code scan.read}
+     * @return Timer with given name, created on first request
+     */
+    public LatencyTimer timer(final String name) {
+        return this.timers.computeIfAbsent(name, LatencyTimer::new);
+    }
+
+    /**
+     * @param name Counter name, e.g. {@code scan.bytes}
+     * @return Counter with given name, created on first request
+     */
+    public LongAdder counter(final String name) {
+        return this.counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Counts failure of an operation by the type of exception which caused it
+     *
+     * @param stage Stage or operation which failed, e.g. {@code scan.decode}
+     * @param error Exception which caused the failure. For wrapping exceptions of this application the type of the
+     *              cause is counted, if it has one
+     */
+    public void failed(final String stage, final Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof ImageProcessingException || cause instanceof ImageDatabaseException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        this.failures.computeIfAbsent(stage + ":" + cause.getClass().getSimpleName(), key -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public SortedMap<String, LatencySnapshot> getTimers() {
+        final SortedMap<String, LatencySnapshot> snapshots = new TreeMap<>();
+        this.timers.forEach((name, timer) -> snapshots.put(name, timer.snapshot()));
+        return snapshots;
+    }
+
+    @Override
+    public SortedMap<String, Long> getCounters() {
+        return sums(this.counters);
+    }
+
+    @Override
+    public SortedMap<String, Long> getFailures() {
+        return sums(this.failures);
+    }
+
+    @Override
+    public void reset() {
+        this.timers.values().forEach(LatencyTimer::reset);
+        this.counters.values().forEach(LongAdder::reset);
+        this.failures.clear();
+    }
+
+    /**
+     * Registers metrics in platform MBean server as {@value #OBJECT_NAME}. Does nothing if they are already
+     * registered
+     */
+    public void registerMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (final InstanceAlreadyExistsException ignored) {
+
+        } catch (final JMException e) {
+            LOGGER.warn("Failed to register metrics MBean", e);
+        }
+    }
+
+    private static SortedMap<String, Long> sums(final Map<String, LongAdder> adders) {
+        final SortedMap<String, Long> sums = new TreeMap<>();
+        adders.forEach((name, adder) -> sums.put(name, adder.sum()));
+        return sums;
+    }
+}
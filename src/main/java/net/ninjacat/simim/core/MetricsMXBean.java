@@ -0,0 +1,29 @@
+package net.ninjacat.simim.core;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}, registered as {@value Metrics#OBJECT_NAME}
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return Latency statistics of scan stages and database statements by timer name
+     */
+    Map<String, LatencySnapshot> getTimers();
+
+    /**
+     * @return Counters by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return Number of failures by stage and exception type, e.g. {@code scan.decode:ImageProcessingException}
+     */
+    Map<String, Long> getFailures();
+
+    /**
+     * Resets all timers, counters and failures
+     */
+    void reset();
+}
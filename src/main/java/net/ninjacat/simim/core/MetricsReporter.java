@@ -0,0 +1,89 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically logs summary of {@link Metrics}: latency and throughput of every timer and change of every counter
+ * since the previous summary, and total failures. Nothing is logged for intervals without activity
+ */
+public class MetricsReporter implements AutoCloseable {
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("simim.metrics");
+
+    private final Metrics metrics;
+    private final ScheduledExecutorService executor;
+    private SortedMap<String, LatencySnapshot> lastTimers = Collections.emptySortedMap();
+    private SortedMap<String, Long> lastCounters = Collections.emptySortedMap();
+    private SortedMap<String, Long> lastFailures = Collections.emptySortedMap();
+    private long lastReport = System.nanoTime();
+
+    /**
+     * Creates reporter and starts logging summaries on its own daemon thread
+     *
+     * @param metrics  Metrics to report
+     * @param interval Interval between summaries
+     */
+    public MetricsReporter(final Metrics metrics, final Duration interval) {
+        this.metrics = metrics;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("simim-metrics-reporter").setDaemon(true).build());
+        this.executor.scheduleAtFixedRate(this::report, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs summary of metrics changed since the previous summary
+     */
+    public synchronized void report() {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1, now - this.lastReport) / 1e9;
+        final SortedMap<String, LatencySnapshot> timers = this.metrics.getTimers();
+        final SortedMap<String, Long> counters = this.metrics.getCounters();
+        final SortedMap<String, Long> failures = this.metrics.getFailures();
+        final StringBuilder summary = new StringBuilder();
+        timers.forEach((name, snapshot) -> {
+            final LatencySnapshot last = this.lastTimers.get(name);
+            final LatencySnapshot interval = last == null ? snapshot : snapshot.since(last);
+            if (interval.getCount() > 0) {
+                summary.append(String.format("%n  %s: %.1f/s, %s", name, interval.getCount() / seconds, interval));
+            }
+        });
+        counters.forEach((name, value) -> {
+            final long last = this.lastCounters.getOrDefault(name, 0L);
+            final long delta = value >= last ? value - last : value;
+            if (delta > 0) {
+                summary.append(String.format("%n  %s: +%d (%.1f/s), total %d", name, delta, delta / seconds, value));
+            }
+        });
+        if (!failures.equals(this.lastFailures)) {
+            failures.forEach((name, value) -> summary.append(String.format("%n  failed %s: %d", name, value)));
+        }
+        if (summary.length() > 0) {
+            LOGGER.info("Metrics for the last {}s:{}", Math.round(seconds), summary);
+        }
+        this.lastTimers = timers;
+        this.lastCounters = counters;
+        this.lastFailures = failures;
+        this.lastReport = now;
+    }
+
+    /**
+     * Stops reporting and logs final summary
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        report();
+    }
+}
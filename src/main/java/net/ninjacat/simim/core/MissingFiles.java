@@ -0,0 +1,115 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Finds which of many files no longer exist.
+ * <p>
+ * Files are grouped by their parent directory and directories are checked concurrently. A directory with several
+ * files to check is listed once, so that each file costs a set lookup instead of a file system call, which matters
+ * on network storage. Files in directories with only a few of them, and in directories which cannot be listed, are
+ * checked one by one.
+ */
+public final class MissingFiles {
+
+    /**
+     * Minimum number of files in a directory for which the directory is listed instead of checking each file
+     */
+    static final int MIN_FILES_TO_LIST = 4;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MissingFiles.class);
+
+    private MissingFiles() {
+    }
+
+    /**
+     * Checks files concurrently with reader threads of given mode
+     *
+     * @param paths       Files to check
+     * @param readerMode  Threading mode of file system calls
+     * @param concurrency Number of reader threads
+     * @return Files which do not exist, grouped by directory
+     */
+    public static List<Path> find(final Collection<Path> paths, final ReaderMode readerMode, final int concurrency) {
+        final ExecutorService executor = readerMode.newExecutor(concurrency);
+        try {
+            return find(paths, executor);
+        } finally {
+            MoreExecutors.shutdownAndAwaitTermination(executor, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Checks files concurrently
+     *
+     * @param paths    Files to check
+     * @param executor Executor checking directories
+     * @return Files which do not exist, grouped by directory
+     */
+    public static List<Path> find(final Collection<Path> paths, final Executor executor) {
+        final Map<Path, List<Path>> byDirectory = paths.stream()
+                .collect(Collectors.groupingBy(MissingFiles::directory, LinkedHashMap::new, Collectors.toList()));
+        final List<CompletableFuture<List<Path>>> checks = new ArrayList<>(byDirectory.size());
+        byDirectory.forEach((directory, files) ->
+                checks.add(CompletableFuture.supplyAsync(() -> findInDirectory(directory, files), executor)));
+        final ImmutableList.Builder<Path> missing = ImmutableList.builder();
+        for (final CompletableFuture<List<Path>> check : checks) {
+            try {
+                missing.addAll(check.join());
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return missing.build();
+    }
+
+    private static List<Path> findInDirectory(final Path directory, final List<Path> files) {
+        if (files.size() >= MIN_FILES_TO_LIST) {
+            final Set<Path> names = new HashSet<>();
+            try (final DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                entries.forEach(entry -> names.add(entry.getFileName()));
+                return files.stream()
+                        .filter(file -> !names.contains(file.getFileName()))
+                        .collect(Collectors.toList());
+            } catch (final NoSuchFileException | NotDirectoryException e) {
+                return files;
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.debug("Failed to list {}, checking files one by one", directory, e);
+            }
+        }
+        return files.stream()
+                .filter(file -> !Files.exists(file))
+                .collect(Collectors.toList());
+    }
+
+    private static Path directory(final Path file) {
+        final Path parent = file.toAbsolutePath().getParent();
+        return parent == null ? file.toAbsolutePath().getRoot() : parent;
+    }
+}
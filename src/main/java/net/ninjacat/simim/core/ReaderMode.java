@@ -0,0 +1,107 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threading mode of the file reading stage of {@link ScanPipeline}
+ */
+public enum ReaderMode {
+    /**
+     * Fixed pool of platform threads, suitable for local disks
+     */
+    PLATFORM(4) {
+        @Override
+        ExecutorService newExecutor(final int concurrency) {
+            return newPlatformExecutor(concurrency);
+        }
+
+        @Override
+        int pendingReads(final int concurrency) {
+            return concurrency * PENDING_READS_PER_THREAD;
+        }
+    },
+
+    /**
+     * One virtual thread per file, so that thousands of reads can wait for network storage at the same time.
+     * Virtual threads need Java 21; on older runtimes a bounded pool of platform threads is used instead
+     */
+    VIRTUAL(1024) {
+        @Override
+        ExecutorService newExecutor(final int concurrency) {
+            final Optional<ExecutorService> executor = newVirtualThreadExecutor();
+            if (executor.isPresent()) {
+                return executor.get();
+            }
+            final int threads = Math.min(concurrency, MAX_FALLBACK_THREADS);
+            LOGGER.warn("Virtual threads are not supported by Java {}, reading files with {} threads",
+                    System.getProperty("java.version"), threads);
+            return newPlatformExecutor(threads);
+        }
+
+        @Override
+        int pendingReads(final int concurrency) {
+            return concurrency;
+        }
+    };
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReaderMode.class);
+    private static final int PENDING_READS_PER_THREAD = 4;
+    private static final int MAX_FALLBACK_THREADS = 128;
+
+    private final int defaultConcurrency;
+
+    ReaderMode(final int defaultConcurrency) {
+        this.defaultConcurrency = defaultConcurrency;
+    }
+
+    /**
+     * @return Default number of reader threads for this mode
+     */
+    public int getDefaultConcurrency() {
+        return this.defaultConcurrency;
+    }
+
+    /**
+     * Creates executor for reading files
+     *
+     * @param concurrency Number of reader threads
+     * @return new executor
+     */
+    abstract ExecutorService newExecutor(final int concurrency);
+
+    /**
+     * @param concurrency Number of reader threads
+     * @return Maximum number of files waiting to be read or being read
+     */
+    abstract int pendingReads(final int concurrency);
+
+    private static ExecutorService newPlatformExecutor(final int threads) {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("simim-reader-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()}, which is only available since Java 21
+     */
+    private static Optional<ExecutorService> newVirtualThreadExecutor() {
+        final Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of((ExecutorService) factory.invoke(null));
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+}
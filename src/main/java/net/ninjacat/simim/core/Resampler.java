@@ -0,0 +1,223 @@
+package net.ninjacat.simim.core;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Area-averaging image downscaler working directly on raster data.
+ * <p>
+ * Every target pixel is the average of source pixels it covers, weighted by the covered area, which is what
+ * {@code Image.getScaledInstance(w, h, SCALE_SMOOTH)} does, but without {@code ImageProducer} pipeline and without
+ * drawing result into another image. Scaling is separable: source rows are reduced to target width first and then
+ * columns are reduced to target height. Transparent pixels are blended over black, same as when image with alpha is
+ * drawn into an opaque image. Samples of 8-bit grayscale images are used as luminance as is.
+ */
+public final class Resampler {
+
+    private static final int RED_WEIGHT = 77;
+    private static final int GREEN_WEIGHT = 150;
+    private static final int BLUE_WEIGHT = 29;
+    private static final float LUMA_SCALE = 256f;
+    private static final float MAX_VALUE = 255f;
+
+    private Resampler() {
+    }
+
+    /**
+     * Scales image to given size and converts it to 8-bit grayscale
+     *
+     * @param image  Source image
+     * @param width  Target width
+     * @param height Target height
+     * @return Luminance of target pixels, row by row
+     */
+    public static byte[] grayscale(final BufferedImage image, final int width, final int height) {
+        final int sourceWidth = image.getWidth();
+        final int sourceHeight = image.getHeight();
+        final Contributions columns = new Contributions(sourceWidth, width);
+        final Contributions rows = new Contributions(sourceHeight, height);
+
+        final int[] row = new int[sourceWidth];
+        final float[] luma = new float[sourceWidth];
+        final float[] reduced = new float[sourceHeight * width];
+        for (int y = 0; y < sourceHeight; y++) {
+            readRow(image, y, row);
+            for (int x = 0; x < sourceWidth; x++) {
+                luma[x] = luminance(row[x]);
+            }
+            columns.apply(luma, 0, 1, reduced, y * width, 1);
+        }
+
+        final float[] scaled = new float[width * height];
+        for (int x = 0; x < width; x++) {
+            rows.apply(reduced, x, width, scaled, x, width);
+        }
+        final byte[] result = new byte[width * height];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) toByte(scaled[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Scales RGB image to given size
+     *
+     * @param image  Source image
+     * @param width  Target width
+     * @param height Target height
+     * @return Scaled image of {@link BufferedImage#TYPE_INT_RGB} type
+     */
+    public static BufferedImage scale(final BufferedImage image, final int width, final int height) {
+        final int sourceWidth = image.getWidth();
+        final int sourceHeight = image.getHeight();
+        final Contributions columns = new Contributions(sourceWidth, width);
+        final Contributions rows = new Contributions(sourceHeight, height);
+
+        final int[] row = new int[sourceWidth];
+        final float[][] channels = new float[3][sourceWidth];
+        final float[][] reduced = new float[3][sourceHeight * width];
+        for (int y = 0; y < sourceHeight; y++) {
+            readRow(image, y, row);
+            for (int x = 0; x < sourceWidth; x++) {
+                final int argb = row[x];
+                final float alpha = (argb >>> 24) / MAX_VALUE;
+                channels[0][x] = ((argb >> 16) & 0xff) * alpha;
+                channels[1][x] = ((argb >> 8) & 0xff) * alpha;
+                channels[2][x] = (argb & 0xff) * alpha;
+            }
+            for (int channel = 0; channel < 3; channel++) {
+                columns.apply(channels[channel], 0, 1, reduced[channel], y * width, 1);
+            }
+        }
+
+        final float[][] scaled = new float[3][width * height];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int x = 0; x < width; x++) {
+                rows.apply(reduced[channel], x, width, scaled[channel], x, width);
+            }
+        }
+        final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = toByte(scaled[0][i]) << 16 | toByte(scaled[1][i]) << 8 | toByte(scaled[2][i]);
+        }
+        return result;
+    }
+
+    private static float luminance(final int argb) {
+        final int red = (argb >> 16) & 0xff;
+        final int green = (argb >> 8) & 0xff;
+        final int blue = argb & 0xff;
+        final float alpha = (argb >>> 24) / MAX_VALUE;
+        return (RED_WEIGHT * red + GREEN_WEIGHT * green + BLUE_WEIGHT * blue) / LUMA_SCALE * alpha;
+    }
+
+    private static int toByte(final float value) {
+        return Math.min(255, Math.max(0, Math.round(value)));
+    }
+
+    /**
+     * Reads one row of image as packed ARGB. Common raster layouts are read directly from their data buffers,
+     * anything else goes through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}
+     */
+    private static void readRow(final BufferedImage image, final int y, final int[] row) {
+        final int width = image.getWidth();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB: {
+                if (!isSimpleRaster(image)) {
+                    break;
+                }
+                final int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                System.arraycopy(data, y * width, row, 0, width);
+                if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                    for (int x = 0; x < width; x++) {
+                        row[x] |= 0xff000000;
+                    }
+                }
+                return;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                if (!isSimpleRaster(image)) {
+                    break;
+                }
+                final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                int offset = y * width * 3;
+                for (int x = 0; x < width; x++) {
+                    row[x] = 0xff000000 | (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8
+                            | (data[offset] & 0xff);
+                    offset += 3;
+                }
+                return;
+            }
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                if (!isSimpleRaster(image)) {
+                    break;
+                }
+                final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                final int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    final int gray = data[offset + x] & 0xff;
+                    row[x] = 0xff000000 | gray << 16 | gray << 8 | gray;
+                }
+                return;
+            }
+            default:
+                break;
+        }
+        image.getRGB(0, y, width, 1, row, 0, width);
+    }
+
+    /**
+     * Checks that raster is not a sub-image of a bigger raster, so that its data starts at the beginning of buffer
+     */
+    private static boolean isSimpleRaster(final BufferedImage image) {
+        return image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer().getNumBanks() == 1
+                && image.getRaster().getDataBuffer().getOffset() == 0;
+    }
+
+    /**
+     * Area weights of source pixels contributing to each target pixel along one axis
+     */
+    private static final class Contributions {
+        private final int[] first;
+        private final int[] count;
+        private final float[][] weights;
+
+        Contributions(final int sourceSize, final int targetSize) {
+            this.first = new int[targetSize];
+            this.count = new int[targetSize];
+            this.weights = new float[targetSize][];
+            final double scale = (double) sourceSize / targetSize;
+            for (int target = 0; target < targetSize; target++) {
+                final double from = target * scale;
+                final double to = Math.min(sourceSize, (target + 1) * scale);
+                final int start = (int) Math.floor(from);
+                final int end = Math.min(sourceSize, (int) Math.ceil(to));
+                this.first[target] = start;
+                this.count[target] = end - start;
+                this.weights[target] = new float[end - start];
+                for (int source = start; source < end; source++) {
+                    final double covered = Math.min(source + 1, to) - Math.max(source, from);
+                    this.weights[target][source - start] = (float) (covered / scale);
+                }
+            }
+        }
+
+        void apply(final float[] source, final int sourceOffset, final int sourceStride,
+                   final float[] target, final int targetOffset, final int targetStride) {
+            for (int t = 0; t < this.first.length; t++) {
+                final float[] w = this.weights[t];
+                int index = sourceOffset + this.first[t] * sourceStride;
+                float sum = 0;
+                for (int i = 0; i < this.count[t]; i++) {
+                    sum += source[index] * w[i];
+                    index += sourceStride;
+                }
+                target[targetOffset + t * targetStride] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.ninjacat.simim.core;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Receives notifications about scan progress. Methods are called from pipeline threads, possibly concurrently, so
+ * implementations must be thread-safe
+ */
+public interface ScanListener {
+
+    /**
+     * Listener which ignores all notifications
+     */
+    ScanListener NONE = new ScanListener() {
+    };
+
+    /**
+     * Called before image is decoded and hashed
+     *
+     * @param path Image path
+     */
+    default void imageLoading(final Path path) {
+    }
+
+    /**
+     * Called periodically while scan is running and once more when it is finished
+     *
+     * @param progress Snapshot of scan statistics
+     */
+    default void progress(final ScanProgress progress) {
+    }
+
+    /**
+     * Adapts simple per-image progress callback
+     *
+     * @param callback Optional callback to be called for each image
+     * @return Listener calling the callback
+     */
+    static ScanListener of(final Consumer<Path> callback) {
+        if (callback == null) {
+            return NONE;
+        }
+        return new ScanListener() {
+            @Override
+            public void imageLoading(final Path path) {
+                callback.accept(path);
+            }
+        };
+    }
+}
@@ -0,0 +1,332 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static net.ninjacat.simim.core.ScanProgress.Stage;
+
+/**
+ * Scans directory for images in separate stages, each running on its own threads.
+ * <p>
+ * The calling thread walks the directory and hands image files to reader threads (see {@link ReaderMode}), which
+ * read whole files into memory. Read files are decoded and hashed by a pool of CPU-bound threads, which pass the
+ * images to {@link BatchImageWriter}, if there is one. Stages are connected with bounded queues, so a slow stage stops
+ * the ones before it. Total size of files read but not yet decoded is limited as well, so that many concurrent reads
+ * do not exhaust memory. Files are read into buffers from {@link FileBuffers} pool and decoded directly from them.
+ * Time spent in each stage and failures are recorded in {@link Metrics#global()}.
+ */
+public class ScanPipeline {
+
+    public static final int DEFAULT_READER_THREADS = ReaderMode.PLATFORM.getDefaultConcurrency();
+    public static final int DEFAULT_DECODER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final Duration DEFAULT_PROGRESS_INTERVAL = Duration.ofSeconds(1);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanPipeline.class);
+    private static final int LOADED_FILES_PER_DECODER = 2;
+    private static final int MAX_BUFFERED_KILOBYTES = 256 * 1024;
+    private static final int KILOBYTE = 1024;
+    private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+    private static final LoadedFile END_OF_SCAN = new LoadedFile(null, null, null, 0);
+    private static final Metrics METRICS = Metrics.global();
+    private static final LatencyTimer WALK_TIMER = METRICS.timer("scan.walk");
+    private static final LatencyTimer READ_TIMER = METRICS.timer("scan.read");
+    private static final LatencyTimer FINGERPRINT_TIMER = METRICS.timer("scan.fingerprint");
+    private static final LatencyTimer PROCESS_TIMER = METRICS.timer("scan.process");
+    private static final LongAdder BYTES_READ = METRICS.counter("scan.bytesRead");
+    private static final LongAdder FILES_SKIPPED = METRICS.counter("scan.skipped");
+
+    private final ReaderMode readerMode;
+    private final int readerThreads;
+    private final int decoderThreads;
+    private final Duration progressInterval;
+    private final ScanListener listener;
+
+    /**
+     * Creates pipeline reading files with platform threads
+     *
+     * @param readerThreads    Number of threads reading files
+     * @param decoderThreads   Number of threads decoding and hashing images
+     * @param progressInterval How often listener receives scan statistics
+     * @param listener         Progress listener
+     */
+    public ScanPipeline(final int readerThreads, final int decoderThreads, final Duration progressInterval,
+                        final ScanListener listener) {
+        this(ReaderMode.PLATFORM, readerThreads, decoderThreads, progressInterval, listener);
+    }
+
+    /**
+     * Creates pipeline
+     *
+     * @param readerMode       How reader threads are created
+     * @param readerThreads    Number of threads reading files
+     * @param decoderThreads   Number of threads decoding and hashing images
+     * @param progressInterval How often listener receives scan statistics
+     * @param listener         Progress listener
+     */
+    public ScanPipeline(final ReaderMode readerMode, final int readerThreads, final int decoderThreads,
+                        final Duration progressInterval, final ScanListener listener) {
+        if (readerThreads <= 0 || decoderThreads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.readerMode = readerMode;
+        this.readerThreads = readerThreads;
+        this.decoderThreads = decoderThreads;
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+    }
+
+    /**
+     * Creates pipeline with default number of threads
+     *
+     * @param listener Progress listener
+     * @return new pipeline
+     */
+    public static ScanPipeline withDefaults(final ScanListener listener) {
+        return new ScanPipeline(DEFAULT_READER_THREADS, DEFAULT_DECODER_THREADS, DEFAULT_PROGRESS_INTERVAL, listener);
+    }
+
+    /**
+     * Scans directory and loads images into memory
+     *
+     * @param root     Root folder to scan
+     * @param selector Called on reader threads for each image file, returns stamp of the file if it has to be hashed
+     *                 or empty to skip it. Stamps without fingerprint get it calculated from the file content
+     * @return Loaded images
+     */
+    public List<SimImage> read(final Path root, final Function<Path, Optional<FileStamp>> selector) {
+        final Scan scan = new Scan(selector, null);
+        scan.run(root);
+        return ImmutableList.copyOf(scan.images);
+    }
+
+    /**
+     * Scans directory and stores images into database
+     *
+     * @param root     Root folder to scan
+     * @param selector Called on reader threads for each image file, returns stamp of the file if it has to be hashed
+     *                 or empty to skip it. Stamps without fingerprint get it calculated from the file content
+     * @param writer   Writer to pass loaded images to. It is not closed by the pipeline. Images are not kept by the
+     *                 pipeline, so memory used by the scan does not grow with the number of images
+     * @return Number of images passed to the writer
+     */
+    public long store(final Path root, final Function<Path, Optional<FileStamp>> selector,
+                      final BatchImageWriter writer) {
+        final Scan scan = new Scan(selector, writer);
+        scan.run(root);
+        return scan.hashed.sum();
+    }
+
+    /**
+     * Checks whether file looks like an image by its extension
+     *
+     * @param path File path
+     * @return {@code true} for supported image files
+     */
+    public static boolean isImageFile(final Path path) {
+        final String s = path.toString().toLowerCase();
+        return s.endsWith(".jpg") || s.endsWith(".jpeg") || s.endsWith(".png") || s.endsWith(".gif");
+    }
+
+    private static ThreadFactory threadFactory(final String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * State of a single scan
+     */
+    private final class Scan {
+        private final Function<Path, Optional<FileStamp>> selector;
+        private final BatchImageWriter writer;
+        private final long started = System.nanoTime();
+        private final int maxPendingReads = ScanPipeline.this.readerMode.pendingReads(ScanPipeline.this.readerThreads);
+        private final Semaphore pendingReads = new Semaphore(this.maxPendingReads);
+        private final Semaphore bufferedKilobytes = new Semaphore(MAX_BUFFERED_KILOBYTES);
+        private final FileBuffers buffers = new FileBuffers(MAX_POOLED_BYTES, FileBuffers.DEFAULT_MAP_THRESHOLD);
+        private final BlockingQueue<LoadedFile> loadedFiles =
+                new ArrayBlockingQueue<>(ScanPipeline.this.decoderThreads * LOADED_FILES_PER_DECODER);
+        // only filled when there is no writer, stored images are not kept
+        private final List<SimImage> images = Collections.synchronizedList(new ArrayList<>());
+        private final LongAdder found = new LongAdder();
+        private final LongAdder read = new LongAdder();
+        private final LongAdder hashed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        Scan(final Function<Path, Optional<FileStamp>> selector, final BatchImageWriter writer) {
+            this.selector = selector;
+            this.writer = writer;
+        }
+
+        void run(final Path root) {
+            final ExecutorService readers =
+                    ScanPipeline.this.readerMode.newExecutor(ScanPipeline.this.readerThreads);
+            final ExecutorService decoders =
+                    Executors.newFixedThreadPool(ScanPipeline.this.decoderThreads, threadFactory("simim-decoder-%d"));
+            final ScheduledExecutorService reporter =
+                    Executors.newSingleThreadScheduledExecutor(threadFactory("simim-scan-progress"));
+            for (int i = 0; i < ScanPipeline.this.decoderThreads; i++) {
+                decoders.execute(this::decode);
+            }
+            final long interval = ScanPipeline.this.progressInterval.toMillis();
+            reporter.scheduleAtFixedRate(this::reportProgress, interval, interval, TimeUnit.MILLISECONDS);
+            final long[] walkStart = {System.nanoTime()};
+            try (final Stream<Path> paths = Files.walk(root)) {
+                paths.filter(ScanPipeline::isImageFile).forEach(path -> {
+                    // time to find the file, not including time spent waiting for readers
+                    WALK_TIMER.stop(walkStart[0]);
+                    this.found.increment();
+                    this.pendingReads.acquireUninterruptibly();
+                    readers.execute(() -> readFile(path));
+                    walkStart[0] = System.nanoTime();
+                });
+            } catch (final IOException | UncheckedIOException e) {
+                METRICS.failed(WALK_TIMER.getName(), e);
+                LOGGER.error("Failed to scan " + root, e);
+            } finally {
+                MoreExecutors.shutdownAndAwaitTermination(readers, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                for (int i = 0; i < ScanPipeline.this.decoderThreads; i++) {
+                    Uninterruptibles.putUninterruptibly(this.loadedFiles, END_OF_SCAN);
+                }
+                MoreExecutors.shutdownAndAwaitTermination(decoders, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                reporter.shutdownNow();
+                reportProgress();
+            }
+        }
+
+        private void readFile(final Path path) {
+            try {
+                final Optional<FileStamp> stamp = this.selector.apply(path);
+                if (stamp.isPresent()) {
+                    final long size = stamp.get().isKnown() ? stamp.get().getSize() : Files.size(path);
+                    final int kilobytes = (int) Math.min(MAX_BUFFERED_KILOBYTES, Math.max(1, size / KILOBYTE));
+                    this.bufferedKilobytes.acquireUninterruptibly(kilobytes);
+                    try {
+                        final long readStart = System.nanoTime();
+                        final ByteBuffer content = this.buffers.read(path);
+                        final long fingerprintStart = READ_TIMER.stop(readStart);
+                        BYTES_READ.add(content.remaining());
+                        final FileStamp fileStamp;
+                        if (stamp.get().getFingerprint().isPresent()) {
+                            fileStamp = stamp.get();
+                        } else {
+                            fileStamp = stamp.get().withFingerprint(FileFingerprint.of(content));
+                            FINGERPRINT_TIMER.stop(fingerprintStart);
+                        }
+                        this.read.increment();
+                        Uninterruptibles.putUninterruptibly(this.loadedFiles,
+                                new LoadedFile(path, fileStamp, content, kilobytes));
+                    } catch (final IOException | RuntimeException e) {
+                        this.bufferedKilobytes.release(kilobytes);
+                        throw e;
+                    }
+                } else {
+                    this.skipped.increment();
+                    FILES_SKIPPED.increment();
+                }
+            } catch (final IOException | RuntimeException e) {
+                this.failed.increment();
+                METRICS.failed(READ_TIMER.getName(), e);
+                LOGGER.warn("Failed to read image {}", path, e);
+            } finally {
+                this.pendingReads.release();
+            }
+        }
+
+        private void decode() {
+            while (true) {
+                final LoadedFile file = Uninterruptibles.takeUninterruptibly(this.loadedFiles);
+                if (file == END_OF_SCAN) {
+                    return;
+                }
+                try {
+                    ScanPipeline.this.listener.imageLoading(file.path);
+                    final long start = System.nanoTime();
+                    final SimImage image = SimImage.fromBuffer(file.path, file.stamp, file.content);
+                    PROCESS_TIMER.stop(start);
+                    this.hashed.increment();
+                    if (this.writer != null) {
+                        this.writer.write(image);
+                    } else {
+                        this.images.add(image);
+                    }
+                } catch (final RuntimeException e) {
+                    this.failed.increment();
+                    METRICS.failed(PROCESS_TIMER.getName(), e);
+                    LOGGER.warn("Failed to process image {}", file.path, e);
+                } finally {
+                    this.buffers.release(file.content);
+                    this.bufferedKilobytes.release(file.kilobytes);
+                }
+            }
+        }
+
+        private void reportProgress() {
+            try {
+                ScanPipeline.this.listener.progress(snapshot());
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Scan listener failed", e);
+            }
+        }
+
+        private ScanProgress snapshot() {
+            final Map<Stage, Long> processed = new EnumMap<>(Stage.class);
+            processed.put(Stage.WALK, this.found.sum());
+            processed.put(Stage.READ, this.read.sum());
+            processed.put(Stage.HASH, this.hashed.sum());
+            final Map<Stage, Integer> queued = new EnumMap<>(Stage.class);
+            queued.put(Stage.READ, this.maxPendingReads - this.pendingReads.availablePermits());
+            queued.put(Stage.HASH, this.loadedFiles.size());
+            if (this.writer != null) {
+                processed.put(Stage.STORE, this.writer.getStoredCount());
+                queued.put(Stage.STORE, this.writer.getQueueSize());
+            }
+            return new ScanProgress(Duration.ofNanos(System.nanoTime() - this.started), processed, queued,
+                    this.skipped.sum(), this.failed.sum());
+        }
+    }
+
+    /**
+     * Content of an image file waiting to be decoded
+     */
+    private static final class LoadedFile {
+        private final Path path;
+        private final FileStamp stamp;
+        private final ByteBuffer content;
+        private final int kilobytes;
+
+        LoadedFile(final Path path, final FileStamp stamp, final ByteBuffer content, final int kilobytes) {
+            this.path = path;
+            this.stamp = stamp;
+            this.content = content;
+            this.kilobytes = kilobytes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.ninjacat.simim.core;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Snapshot of scan pipeline statistics: number of items each stage processed, number of items waiting for the stage
+ * and number of files which were skipped or failed
+ */
+public final class ScanProgress {
+
+    /**
+     * Stages of scan pipeline
+     */
+    public enum Stage {
+        /**
+         * Directory walk, counts image files found
+         */
+        WALK,
+        /**
+         * File reading, counts files read into memory
+         */
+        READ,
+        /**
+         * Decoding and hashing, counts images hashed
+         */
+        HASH,
+        /**
+         * Storing to database, counts images stored
+         */
+        STORE
+    }
+
+    private final Duration elapsed;
+    private final Map<Stage, Long> processed;
+    private final Map<Stage, Integer> queued;
+    private final long skipped;
+    private final long failed;
+
+    ScanProgress(final Duration elapsed, final Map<Stage, Long> processed, final Map<Stage, Integer> queued,
+                 final long skipped, final long failed) {
+        this.elapsed = elapsed;
+        this.processed = new EnumMap<>(processed);
+        this.queued = new EnumMap<>(queued);
+        this.skipped = skipped;
+        this.failed = failed;
+    }
+
+    /**
+     * @return Time since scan was started
+     */
+    public Duration getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * @param stage Pipeline stage
+     * @return Number of items processed by the stage
+     */
+    public long getProcessed(final Stage stage) {
+        return this.processed.getOrDefault(stage, 0L);
+    }
+
+    /**
+     * @param stage Pipeline stage
+     * @return Number of items waiting to be processed by the stage
+     */
+    public int getQueued(final Stage stage) {
+        return this.queued.getOrDefault(stage, 0);
+    }
+
+    /**
+     * @param stage Pipeline stage
+     * @return Average number of items processed by the stage per second since scan was started
+     */
+    public double getThroughput(final Stage stage) {
+        final long millis = this.elapsed.toMillis();
+        return millis == 0 ? 0 : getProcessed(stage) * 1000.0 / millis;
+    }
+
+    /**
+     * @return Number of files which did not need to be hashed
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * @return Number of files which could not be read, decoded or stored
+     */
+    public long getFailed() {
+        return this.failed;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ScanProgress{elapsed=").append(this.elapsed);
+        for (final Stage stage : Stage.values()) {
+            builder.append(String.format(", %s=%d (%.1f/s, queued %d)", stage.name().toLowerCase(),
+                    getProcessed(stage), getThroughput(stage), getQueued(stage)));
+        }
+        return builder.append(", skipped=").append(this.skipped)
+                .append(", failed=").append(this.failed)
+                .append('}').toString();
+    }
+}
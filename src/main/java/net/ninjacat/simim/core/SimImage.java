@@ -1,32 +1,90 @@
 package net.ninjacat.simim.core;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
-import javafx.scene.image.Image;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Supplier;
 
-import static javafx.embed.swing.SwingFXUtils.fromFXImage;
-import static javafx.embed.swing.SwingFXUtils.toFXImage;
-
 /**
  * Image wrapper used internally when searching for similar images
  */
 public class SimImage {
     private static final int THUMBNAIL_DIMENSION = 320;
+    private static final long POOLED_BUFFER_BYTES = Runtime.getRuntime().availableProcessors() * 4L * 1024 * 1024;
+    private static final FileBuffers FILE_BUFFERS =
+            new FileBuffers(POOLED_BUFFER_BYTES, FileBuffers.DEFAULT_MAP_THRESHOLD);
+    private static final Map<HashAlgorithm, LatencyTimer> HASH_TIMERS = new EnumMap<>(HashAlgorithm.class);
+    private static final LatencyTimer RESIZE_TIMER = Metrics.global().timer("thumbnail.resize");
+    private static final LatencyTimer ENCODE_TIMER = Metrics.global().timer("thumbnail.encode");
+
+    static {
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            HASH_TIMERS.put(algorithm, Metrics.global().timer("hash." + algorithm.name().toLowerCase()));
+        }
+    }
+
     private final Path path;
-    private final ImageHash signature;
-    private final Supplier<Image> thumbnail;
+    private final Map<HashAlgorithm, ImageHash> signatures;
+    private final FileStamp fileStamp;
+    private final Supplier<CompletableFuture<Optional<BufferedImage>>> thumbnail;
+    private final DecodedThumbnail decoded;
+    private final Supplier<byte[]> thumbnailBlob = Suppliers.memoize(this::encodeThumbnail);
 
     public static SimImage fromPath(final Path path) {
-        try (final InputStream is = new BufferedInputStream(new FileInputStream(path.toFile()))) {
-            return new SimImage(is, path);
+        try {
+            return fromPath(path, FileStamp.of(path));
+        } catch (final IOException e) {
+            throw new ImageProcessingException("Failed to load image " + path, e);
+        }
+    }
+
+    /**
+     * Loads image from file which stamp is already known. File is read with a pooled buffer
+     *
+     * @param path  Image path
+     * @param stamp File stamp read before loading the image
+     * @return Loaded image
+     */
+    public static SimImage fromPath(final Path path, final FileStamp stamp) {
+        try {
+            final ByteBuffer content = FILE_BUFFERS.read(path);
+            try {
+                return fromBuffer(path, stamp, content);
+            } finally {
+                FILE_BUFFERS.release(content);
+            }
+        } catch (final IOException e) {
+            throw new ImageProcessingException("Failed to load image " + path, e);
+        }
+    }
+
+    /**
+     * Loads image from file content which is already read into memory. Image is decoded directly from the buffer,
+     * which is not referenced after this method returns
+     *
+     * @param path    Image path
+     * @param stamp   File stamp
+     * @param content Whole content of the file between buffer position and limit
+     * @return Loaded image
+     */
+    public static SimImage fromBuffer(final Path path, final FileStamp stamp, final ByteBuffer content) {
+        try {
+            return new SimImage(path, stamp, ImageDecoder.decode(content, THUMBNAIL_DIMENSION));
         } catch (final IOException e) {
             throw new ImageProcessingException("Failed to load image " + path, e);
         }
@@ -38,24 +96,64 @@ public class SimImage {
     }
 
     SimImage(final InputStream inputStream, final Path path) throws IOException {
+        this(inputStream, path, FileStamp.UNKNOWN);
+    }
+
+    SimImage(final InputStream inputStream, final Path path, final FileStamp fileStamp) throws IOException {
+        this(path, fileStamp, decode(inputStream));
+    }
+
+    private SimImage(final Path path, final FileStamp fileStamp, final BufferedImage image) {
         this.path = path;
-        try (final InputStream is = new BufferedInputStream(inputStream)) {
-            final Image image = load(is);
-            this.signature = new ImageHash(image);
-            this.thumbnail = Suppliers.memoize(() -> generateThumbnail(image));
+        this.fileStamp = fileStamp;
+        this.signatures = new EnumMap<>(HashAlgorithm.class);
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            final long start = System.nanoTime();
+            this.signatures.put(algorithm, new ImageHash(algorithm, image));
+            HASH_TIMERS.get(algorithm).stop(start);
         }
+        this.decoded = new DecodedThumbnail(path, image);
+        this.thumbnail = () -> CompletableFuture.completedFuture(this.decoded.get());
     }
 
-    SimImage(final Path path, final ImageHash signature, final InputStream thumbnailStream) throws IOException {
+    /**
+     * Creates image loaded from database. Thumbnail is not kept by the image, it is loaded every time it is requested,
+     * so that thumbnail cache decides how long it stays in memory. If database does not have thumbnail for the image,
+     * it is generated once from the image file, if the file still exists
+     *
+     * @param path            Image path
+     * @param signatures      Stored signatures, must include difference hash
+     * @param fileStamp       Stored file stamp
+     * @param storedThumbnail Loads stored thumbnail
+     */
+    SimImage(final Path path, final Collection<ImageHash> signatures, final FileStamp fileStamp,
+             final Supplier<CompletableFuture<Optional<BufferedImage>>> storedThumbnail) {
         this.path = path;
-        final Image image = load(thumbnailStream);
-        this.signature = signature;
-        this.thumbnail = () -> image;
+        this.signatures = new EnumMap<>(HashAlgorithm.class);
+        signatures.forEach(signature -> this.signatures.put(signature.getAlgorithm(), signature));
+        Preconditions.checkArgument(this.signatures.containsKey(HashAlgorithm.DHash),
+                "Image %s has no difference hash", path);
+        this.fileStamp = fileStamp;
+        this.decoded = null;
+        final Supplier<Optional<BufferedImage>> fromFile = Suppliers.memoize(() -> thumbnailFromFile(path));
+        this.thumbnail = () -> storedThumbnail.get()
+                .thenApply(stored -> stored.isPresent() ? stored : fromFile.get());
     }
 
-    private static Image load(final InputStream input) throws IOException {
+    private static BufferedImage decode(final InputStream input) throws IOException {
         try (final InputStream is = new BufferedInputStream(input)) {
-            return new Image(is);
+            return ImageDecoder.decode(is, THUMBNAIL_DIMENSION);
+        }
+    }
+
+    private static Optional<BufferedImage> thumbnailFromFile(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try {
+            return fromPath(path, FileStamp.UNKNOWN).getThumbnail();
+        } catch (final ImageProcessingException e) {
+            return Optional.empty();
         }
     }
 
@@ -63,55 +161,135 @@ public class SimImage {
         return this.path;
     }
 
+    /**
+     * @return Difference hash of the image
+     */
     public ImageHash getSignature() {
-        return this.signature;
+        return this.signatures.get(HashAlgorithm.DHash);
+    }
+
+    /**
+     * @param algorithm Hash algorithm
+     * @return Signature calculated by the algorithm, empty for stored images which were hashed before the algorithm
+     * was added
+     */
+    public Optional<ImageHash> getSignature(final HashAlgorithm algorithm) {
+        return Optional.ofNullable(this.signatures.get(algorithm));
     }
 
-    public Image getThumbnail() {
+    /**
+     * @return All signatures of the image
+     */
+    public Collection<ImageHash> getSignatures() {
+        return Collections.unmodifiableCollection(this.signatures.values());
+    }
+
+    /**
+     * @return Size and modification time of the image file when it was loaded
+     */
+    public FileStamp getFileStamp() {
+        return this.fileStamp;
+    }
+
+    /**
+     * @return Thumbnail of the image, empty if it was not stored and image file is not available anymore
+     */
+    public Optional<BufferedImage> getThumbnail() {
+        try {
+            return this.thumbnail.get().join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return Future thumbnail of the image, loaded in background if it is not in memory
+     */
+    public CompletableFuture<Optional<BufferedImage>> getThumbnailAsync() {
         return this.thumbnail.get();
     }
 
+    /**
+     * @return Thumbnail encoded as JPEG. Encoding is done once, so that it can be done by the thread which created
+     * the image rather than by the one which stores it
+     * @throws ImageProcessingException if image has no thumbnail
+     */
     public InputStream getThumbnailBlob() {
+        return new ByteArrayInputStream(this.thumbnailBlob.get());
+    }
+
+    /**
+     * Drops decoded image once the image is stored, so that images which are still referenced do not keep decoded
+     * pixels in memory. Thumbnail which was not generated by then is loaded from the image file when requested
+     */
+    void releaseImage() {
+        if (this.decoded != null) {
+            this.decoded.release();
+        }
+    }
+
+    private byte[] encodeThumbnail() {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            ImageIO.write(fromFXImage(getThumbnail(), null), "jpg", baos);
-            return new ByteArrayInputStream(baos.toByteArray());
+            final BufferedImage image = getThumbnail().orElseThrow(() ->
+                    new ImageProcessingException("Image " + this.path + " has no thumbnail", null));
+            final long start = System.nanoTime();
+            ImageIO.write(image, "jpg", baos);
+            ENCODE_TIMER.stop(start);
+            return baos.toByteArray();
         } catch (final IOException e) {
             throw new ImageProcessingException("Failed to convert image to jpg", e);
         }
     }
 
-    private static Image generateThumbnail(final Image image) {
-        final double scale = Math.max(image.getWidth(), image.getHeight()) / THUMBNAIL_DIMENSION;
+    private static BufferedImage generateThumbnail(final BufferedImage image) {
+        final double scale = (double) Math.max(image.getWidth(), image.getHeight()) / THUMBNAIL_DIMENSION;
         final int newW = (int) (image.getWidth() / scale);
         final int newH = (int) (image.getHeight() / scale);
-        final BufferedImage bimg = toBufferedImage(fromFXImage(image, null)
-                .getScaledInstance(newW, newH, java.awt.Image.SCALE_SMOOTH));
-        return toFXImage(bimg, null);
+        final long start = System.nanoTime();
+        final BufferedImage thumbnail = Resampler.scale(image, Math.max(1, newW), Math.max(1, newH));
+        RESIZE_TIMER.stop(start);
+        return thumbnail;
     }
 
-    private static BufferedImage toBufferedImage(final java.awt.Image img) {
-        if (img instanceof BufferedImage) {
-            return (BufferedImage) img;
-        }
+    /**
+     * Thumbnail generated once from decoded image. Decoded image is dropped when the thumbnail is generated or the
+     * image is released
+     */
+    private static final class DecodedThumbnail implements Supplier<Optional<BufferedImage>> {
+        private final Path path;
+        private BufferedImage image;
+        private Optional<BufferedImage> thumbnail;
 
-        // Create a buffered image with transparency
-        final BufferedImage bimage = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_RGB);
+        DecodedThumbnail(final Path path, final BufferedImage image) {
+            this.path = path;
+            this.image = image;
+        }
 
-        // Draw the image on to the buffered image
-        final Graphics2D bGr = bimage.createGraphics();
-        bGr.drawImage(img, 0, 0, null);
-        bGr.dispose();
+        @Override
+        public synchronized Optional<BufferedImage> get() {
+            if (this.thumbnail == null) {
+                this.thumbnail = this.image != null
+                        ? Optional.of(generateThumbnail(this.image))
+                        : thumbnailFromFile(this.path);
+                this.image = null;
+            }
+            return this.thumbnail;
+        }
 
-        // Return the buffered image
-        return bimage;
+        synchronized void release() {
+            this.image = null;
+        }
     }
 
     @Override
     public String toString() {
         return "SimImage{" +
                 "path=" + this.path +
-                ", signature=" + this.signature +
+                ", signature=" + getSignature() +
                 '}';
     }
 }
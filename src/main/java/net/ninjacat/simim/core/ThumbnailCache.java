@@ -0,0 +1,133 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.LongFunction;
+
+/**
+ * Cache of decoded thumbnails, keyed by image id.
+ * <p>
+ * Cache is bounded by total size of decoded pixel data rather than by number of entries, least recently used
+ * thumbnails are evicted first. Missing thumbnails can be loaded either on the calling thread or asynchronously on a
+ * loader executor; concurrent requests for the same thumbnail share one load. Unless an executor is given, all caches
+ * share the same {@value #LOADER_THREADS} daemon loader threads, so creating many caches does not start more threads.
+ */
+public class ThumbnailCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int LOADER_THREADS = 2;
+    private static final int MISSING_THUMBNAIL_WEIGHT = 64;
+    private static final Executor SHARED_LOADER = Executors.newFixedThreadPool(LOADER_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("simim-thumbnail-loader-%d").setDaemon(true).build());
+
+    private final LoadingCache<Long, Optional<BufferedImage>> cache;
+    private final Executor executor;
+
+    /**
+     * Creates cache loading thumbnails on daemon threads shared by all caches
+     *
+     * @param loader   Loads thumbnail by image id
+     * @param maxBytes Maximum total size of cached pixel data
+     */
+    public ThumbnailCache(final LongFunction<Optional<BufferedImage>> loader, final long maxBytes) {
+        this(loader, maxBytes, SHARED_LOADER);
+    }
+
+    /**
+     * Creates cache
+     *
+     * @param loader   Loads thumbnail by image id
+     * @param maxBytes Maximum total size of cached pixel data
+     * @param executor Executor for asynchronous loads
+     */
+    public ThumbnailCache(final LongFunction<Optional<BufferedImage>> loader, final long maxBytes,
+                          final Executor executor) {
+        this.executor = executor;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((final Long id, final Optional<BufferedImage> thumbnail) ->
+                        thumbnail.map(ThumbnailCache::pixelBytes).orElse(MISSING_THUMBNAIL_WEIGHT))
+                .recordStats()
+                .build(new CacheLoader<Long, Optional<BufferedImage>>() {
+                    @Override
+                    public Optional<BufferedImage> load(final Long id) {
+                        return loader.apply(id);
+                    }
+                });
+    }
+
+    /**
+     * Returns cached thumbnail, loading it on the calling thread if it is not cached
+     *
+     * @param imageId Image id
+     * @return Thumbnail, if image has one
+     */
+    public Optional<BufferedImage> get(final long imageId) {
+        try {
+            return this.cache.getUnchecked(imageId);
+        } catch (final UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns cached thumbnail, loading it on the loader executor if it is not cached
+     *
+     * @param imageId Image id
+     * @return Future thumbnail, already completed if thumbnail was cached
+     */
+    public CompletableFuture<Optional<BufferedImage>> getAsync(final long imageId) {
+        if (this.cache.asMap().containsKey(imageId)) {
+            final Optional<BufferedImage> cached = this.cache.getIfPresent(imageId);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> get(imageId), this.executor);
+    }
+
+    /**
+     * Removes thumbnail from the cache, e.g. after image was deleted
+     *
+     * @param imageId Image id
+     */
+    public void invalidate(final long imageId) {
+        this.cache.invalidate(imageId);
+    }
+
+    /**
+     * @return Hit, miss, load and eviction statistics
+     */
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * @return Number of cached thumbnails
+     */
+    public long size() {
+        return this.cache.size();
+    }
+
+    private static int pixelBytes(final BufferedImage image) {
+        final DataBuffer buffer = image.getRaster().getDataBuffer();
+        final long bytes = (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / Byte.SIZE;
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+}
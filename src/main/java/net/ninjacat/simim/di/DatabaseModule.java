@@ -3,8 +3,14 @@ package net.ninjacat.simim.di;
 import dagger.Module;
 import dagger.Provides;
 import net.ninjacat.simim.app.Application;
+import net.ninjacat.simim.core.BatchImageWriter;
+import net.ninjacat.simim.core.ConnectionPool;
 import net.ninjacat.simim.core.ImageDatabase;
-import net.ninjacat.simim.core.ImageDatabaseException;
+import net.ninjacat.simim.core.Metrics;
+import net.ninjacat.simim.core.MetricsReporter;
+import net.ninjacat.simim.core.ReaderMode;
+import net.ninjacat.simim.core.ScanPipeline;
+import net.ninjacat.simim.core.ThumbnailCache;
 import net.ninjacat.utils.Os;
 import org.flywaydb.core.Flyway;
 
@@ -13,33 +19,62 @@ import javax.inject.Singleton;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.time.Duration;
 
 @Module
 public class DatabaseModule {
 
+    private final ReaderMode readerMode;
+
+    /**
+     * Creates module which reads files with platform threads
+     */
+    public DatabaseModule() {
+        this(ReaderMode.PLATFORM);
+    }
+
+    /**
+     * @param readerMode Threading mode of file reads during scans, selected with {@code --reader-mode} option of
+     *                   {@link net.ninjacat.simim.app.Console}
+     */
+    public DatabaseModule(final ReaderMode readerMode) {
+        this.readerMode = readerMode;
+    }
 
     @Provides
-    @Named("databaseUrl")
-    public String providesDatabaseUrl(){
+    @Named("dataPath")
+    public Path providesDataPath() {
         final Path dataPath = Os.current().getAppData(Application.NAME).resolve("data");
         try {
             Files.createDirectories(dataPath);
         } catch (final IOException e) {
         }
+        return dataPath;
+    }
+
+    @Provides
+    @Named("databaseUrl")
+    public String providesDatabaseUrl(@Named("dataPath") final Path dataPath){
         return "jdbc:hsqldb:file:" + dataPath.resolve("data").toString();
     }
 
+    @Provides
+    @Named("hashSnapshotFile")
+    public Path providesHashSnapshotFile(@Named("dataPath") final Path dataPath) {
+        return dataPath.resolve("hashes.idx");
+    }
+
+    @Provides
+    @Named("connectionPoolSize")
+    public int providesConnectionPoolSize() {
+        return ConnectionPool.DEFAULT_SIZE;
+    }
+
     @Provides
     @Singleton
-    public Connection provideDb(@Named("databaseUrl") final String url)  {
-        try {
-            return DriverManager.getConnection(url, "SA", "");
-        } catch (final SQLException e) {
-            throw new ImageDatabaseException("Failed to get connection", e);
-        }
+    public ConnectionPool providesConnectionPool(@Named("databaseUrl") final String url,
+                                                 @Named("connectionPoolSize") final int size) {
+        return ConnectionPool.of(url, "SA", "", size);
     }
 
     @Provides
@@ -50,9 +85,66 @@ public class DatabaseModule {
         return flyway;
     }
 
+    @Provides
+    @Named("insertBatchSize")
+    public int providesInsertBatchSize() {
+        return BatchImageWriter.DEFAULT_BATCH_SIZE;
+    }
+
+    @Provides
+    @Named("insertFlushInterval")
+    public Duration providesInsertFlushInterval() {
+        return BatchImageWriter.DEFAULT_FLUSH_INTERVAL;
+    }
+
+    @Provides
+    @Named("storeThumbnails")
+    public boolean providesStoreThumbnails() {
+        return true;
+    }
+
+    @Provides
+    @Named("readerMode")
+    public ReaderMode providesReaderMode() {
+        return this.readerMode;
+    }
+
+    @Provides
+    @Named("readerThreads")
+    public int providesReaderThreads(@Named("readerMode") final ReaderMode readerMode) {
+        return readerMode.getDefaultConcurrency();
+    }
+
+    @Provides
+    @Named("decoderThreads")
+    public int providesDecoderThreads() {
+        return ScanPipeline.DEFAULT_DECODER_THREADS;
+    }
+
+    @Provides
+    @Singleton
+    public Metrics providesMetrics() {
+        final Metrics metrics = Metrics.global();
+        metrics.registerMBean();
+        return metrics;
+    }
+
+    @Provides
+    @Named("metricsReportInterval")
+    public Duration providesMetricsReportInterval() {
+        return MetricsReporter.DEFAULT_INTERVAL;
+    }
+
+    @Provides
+    public MetricsReporter providesMetricsReporter(final Metrics metrics,
+                                                   @Named("metricsReportInterval") final Duration interval) {
+        return new MetricsReporter(metrics, interval);
+    }
+
     @Provides
     @Singleton
-    public ImageDatabase providesImageDatabase(final Connection db, final Flyway flyway) {
-        return new ImageDatabase(db, flyway);
+    public ImageDatabase providesImageDatabase(final ConnectionPool pool, final Flyway flyway,
+                                               @Named("hashSnapshotFile") final Path hashSnapshotFile) {
+        return new ImageDatabase(pool, flyway, ThumbnailCache.DEFAULT_MAX_BYTES, hashSnapshotFile);
     }
 }
@@ -2,6 +2,7 @@ package net.ninjacat.simim.di;
 
 import dagger.Component;
 import net.ninjacat.simim.app.DuplicateFinder;
+import net.ninjacat.simim.core.MetricsReporter;
 
 import javax.inject.Singleton;
 
@@ -9,4 +10,6 @@ import javax.inject.Singleton;
 @Component(modules = {DatabaseModule.class})
 public interface SimimComponent {
     DuplicateFinder duplicateFinder();
+
+    MetricsReporter metricsReporter();
 }
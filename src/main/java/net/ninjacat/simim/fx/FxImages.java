@@ -0,0 +1,37 @@
+package net.ninjacat.simim.fx;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import net.ninjacat.simim.core.HashAlgorithm;
+import net.ninjacat.simim.core.HashBits;
+import net.ninjacat.simim.core.SimImage;
+
+import java.util.Optional;
+
+/**
+ * Adapters between JavaFX images and the headless core API, for use by UI code only
+ */
+public final class FxImages {
+
+    private FxImages() {
+    }
+
+    /**
+     * @param image Image
+     * @return Thumbnail of the image as JavaFX image, if image has thumbnail
+     */
+    public static Optional<Image> thumbnail(final SimImage image) {
+        return image.getThumbnail().map(thumbnail -> SwingFXUtils.toFXImage(thumbnail, null));
+    }
+
+    /**
+     * Calculates signature of a JavaFX image
+     *
+     * @param algorithm Hash algorithm
+     * @param image     JavaFX image
+     * @return Image signature
+     */
+    public static HashBits signature(final HashAlgorithm algorithm, final Image image) {
+        return algorithm.signature(SwingFXUtils.fromFXImage(image, null));
+    }
+}
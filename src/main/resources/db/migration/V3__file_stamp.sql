@@ -0,0 +1,2 @@
+ALTER TABLE image ADD COLUMN file_size BIGINT;
+ALTER TABLE image ADD COLUMN modified BIGINT;
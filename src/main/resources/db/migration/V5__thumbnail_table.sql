@@ -0,0 +1,11 @@
+ALTER TABLE image ADD COLUMN id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY;
+
+CREATE CACHED TABLE IF NOT EXISTS thumbnail (
+    image_id BIGINT PRIMARY KEY,
+    data VARBINARY(262144) NOT NULL,
+    FOREIGN KEY (image_id) REFERENCES image(id) ON DELETE CASCADE
+);
+
+INSERT INTO thumbnail(image_id, data) SELECT id, thumbnail FROM image WHERE thumbnail IS NOT NULL;
+
+ALTER TABLE image DROP COLUMN thumbnail;
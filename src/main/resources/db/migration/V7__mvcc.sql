@@ -0,0 +1 @@
+SET DATABASE TRANSACTION CONTROL MVCC;
@@ -0,0 +1,62 @@
+package db.migration;
+
+import net.ninjacat.simim.core.HashBits;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class V2__Binary_hashTest {
+
+    @Test
+    public void shouldRestoreHashWithoutStrippedBytes() {
+        final BitSet original = bits(9, 15, 40, 64, 66, 120, 128);
+
+        assertThat(V2__Binary_hash.decodeLegacy(legacy(original)), is(HashBits.fromBitSet(original, 128)));
+    }
+
+    @Test
+    public void shouldRestoreHashWithStrippedLeadingZeroes() {
+        final BitSet original = bits(9, 10, 33, 50, 64, 90, 126);
+
+        assertThat(V2__Binary_hash.decodeLegacy(legacy(original)), is(HashBits.fromBitSet(original, 128)));
+    }
+
+    @Test
+    public void shouldMigrateEmptyDatabase() throws SQLException {
+        final String url = "jdbc:hsqldb:mem:v2-empty";
+        final Flyway flyway = new Flyway();
+        flyway.setDataSource(url, "SA", "");
+        flyway.setTarget(MigrationVersion.fromVersion("2"));
+
+        flyway.migrate();
+
+        try (final Connection connection = DriverManager.getConnection(url, "SA", "");
+             final ResultSet resultSet = connection.createStatement()
+                     .executeQuery("select count(hash_lo) from image")) {
+            assertThat(resultSet.next(), is(true));
+            assertThat(resultSet.getInt(1), is(0));
+        }
+    }
+
+    private static String legacy(final BitSet bits) {
+        return new BigInteger(bits.toByteArray()).toString();
+    }
+
+    private static BitSet bits(final int... indices) {
+        final BitSet bits = new BitSet();
+        for (final int index : indices) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,121 @@
+package net.ninjacat.simim.app;
+
+import net.ninjacat.simim.core.BatchImageWriter;
+import net.ninjacat.simim.core.FileStamp;
+import net.ninjacat.simim.core.HashAlgorithm;
+import net.ninjacat.simim.core.ImageDatabase;
+import net.ninjacat.simim.core.ReaderMode;
+import net.ninjacat.simim.core.SimImage;
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class DuplicateFinderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+    private DuplicateFinder finder;
+
+    @Before
+    public void setUp() throws SQLException {
+        final String url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + System.nanoTime();
+        this.connection = DriverManager.getConnection(url, "SA", "");
+        final Flyway flyway = new Flyway();
+        flyway.setDataSource(url, "SA", "");
+        this.finder = new DuplicateFinder(new ImageDatabase(this.connection, flyway), BatchImageWriter.DEFAULT_BATCH_SIZE,
+                BatchImageWriter.DEFAULT_FLUSH_INTERVAL, false, ReaderMode.PLATFORM, 1, 1);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.createStatement().execute("SHUTDOWN");
+    }
+
+    @Test
+    public void shouldNotGroupImagesWithSameDifferenceHashButDifferentPerceptualHash() throws SQLException {
+        final long perceptual = 0x0f0f_3c3c_5a5a_9696L;
+        insert("original.jpg", 0x1234, perceptual);
+        insert("different.jpg", 0x1234, ~perceptual);
+        insert("copy.jpg", 0x1235, perceptual ^ 1);
+
+        final List<Duplicates> duplicates = this.finder.findDuplicates();
+
+        assertThat(duplicates, hasSize(1));
+        final List<Path> paths = duplicates.get(0).getImages().stream()
+                .map(SimImage::getPath)
+                .collect(Collectors.toList());
+        assertThat(paths, contains(Paths.get("/images/original.jpg"), Paths.get("/images/copy.jpg")));
+    }
+
+    @Test
+    public void shouldBackfillPerceptualHashWhenReindexing() throws IOException, SQLException {
+        final Path path = this.folder.getRoot().toPath().resolve("stored.png");
+        final BufferedImage content = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < content.getHeight(); y++) {
+            for (int x = 0; x < content.getWidth(); x++) {
+                content.setRGB(x, y, x < y ? 0x203040 : 0xdfcfbf);
+            }
+        }
+        ImageIO.write(content, "png", path.toFile());
+        final SimImage image = SimImage.fromPath(path);
+        final FileStamp stamp = FileStamp.of(path);
+        try (final PreparedStatement statement = this.connection.prepareStatement(
+                "insert into image(hash_lo, hash_hi, path, file_size, modified) values(?, ?, ?, ?, ?)")) {
+            statement.setLong(1, image.getSignature().getBits().word(0));
+            statement.setLong(2, image.getSignature().getBits().word(1));
+            statement.setString(3, path.toString());
+            statement.setLong(4, stamp.getSize());
+            statement.setLong(5, stamp.getLastModified());
+            statement.execute();
+        }
+
+        this.finder.reindex(this.folder.getRoot().toPath(), (Consumer<Path>) null);
+
+        try (final ResultSet resultSet = this.connection.createStatement()
+                .executeQuery("select phash, fingerprint from image")) {
+            assertThat(resultSet.next(), is(true));
+            assertThat(resultSet.getLong(1), is(image.getSignature(HashAlgorithm.PHash).get().getBits().word(0)));
+            assertThat(resultSet.getObject(2), is(notNullValue()));
+            assertThat(resultSet.next(), is(false));
+        }
+    }
+
+    /**
+     * Stores image row directly, images with given hashes can not be created outside of core package
+     */
+    private void insert(final String name, final long differenceHash, final long perceptualHash)
+            throws SQLException {
+        try (final PreparedStatement statement = this.connection.prepareStatement(
+                "insert into image(hash_lo, hash_hi, phash, path) values(?, 0, ?, ?)")) {
+            statement.setLong(1, differenceHash);
+            statement.setLong(2, perceptualHash);
+            statement.setString(3, Paths.get("/images", name).toString());
+            statement.execute();
+        }
+    }
+}
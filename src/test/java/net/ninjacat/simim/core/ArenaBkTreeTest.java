@@ -0,0 +1,56 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ArenaBkTreeTest {
+
+    private static final int MAX_DISTANCE = 12;
+
+    @Test
+    public void shouldFindSameSlotsAsFullScan() {
+        final Random random = new Random(42);
+        final HashArena arena = new HashArena(16);
+        for (int i = 0; i < 500; i++) {
+            arena.add(i + 1, random.nextLong(), random.nextLong());
+        }
+        // make some hashes close to each other, and some equal
+        for (int i = 0; i < 100; i++) {
+            final int source = random.nextInt(arena.size());
+            final long flip = i % 5 == 0 ? 0 : 1L << random.nextInt(64) | 1L << random.nextInt(64);
+            arena.add(arena.size() + 1, arena.word(source, 0) ^ flip, arena.word(source, 1));
+        }
+        final ArenaBkTree tree = ArenaBkTree.of(arena);
+
+        assertThat(tree.size(), is(arena.size()));
+        for (int query = 0; query < arena.size(); query++) {
+            final int slot = query;
+            final int[] expected = IntStream.range(0, arena.size())
+                    .filter(other -> arena.distance(slot, other) <= MAX_DISTANCE)
+                    .toArray();
+
+            assertThat(tree.search(slot, MAX_DISTANCE), is(expected));
+        }
+    }
+
+    @Test
+    public void arenaShouldMatchImageHashDistance() {
+        final Random random = new Random(7);
+        final HashArena arena = new HashArena();
+        final ImageHash first = new ImageHash(HashBits.of(random.nextLong(), random.nextLong()));
+        final ImageHash second = new ImageHash(HashBits.of(random.nextLong(), random.nextLong()));
+
+        arena.add(10, first);
+        arena.add(20, second);
+
+        assertThat(arena.id(1), is(20L));
+        assertThat(arena.hash(0), is(first));
+        assertThat(arena.distance(0, 1), is(first.distance(second)));
+        assertThat(arena.sameHash(0, 1), is(false));
+    }
+}
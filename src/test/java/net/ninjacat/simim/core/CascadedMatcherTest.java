@@ -0,0 +1,54 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CascadedMatcherTest {
+
+    private static final int MAX_PERCEPTUAL_DISTANCE = 9;
+    private static final int MAX_DISTANCE = 12;
+
+    @Test
+    public void shouldRequireBothHashesToBeSimilar() {
+        final HashArena arena = new HashArena();
+        arena.add(1, 0L, 0L, 0L);
+        // similar by both hashes
+        arena.add(2, 0xfL, 0L, 0x3fL);
+        // similar by difference hash only
+        arena.add(3, 0xfL, 0L, -1L);
+        // similar by perceptual hash only
+        arena.add(4, -1L, -1L, 0L);
+
+        final CascadedMatcher matcher = new CascadedMatcher(arena, HashAlgorithm.PHash, MAX_PERCEPTUAL_DISTANCE,
+                HashAlgorithm.DHash, MAX_DISTANCE);
+
+        assertThat(toList(matcher.matches(0)), is(Arrays.asList(0, 1)));
+        assertThat(toList(matcher.matches(2)), is(Arrays.asList(2)));
+        assertThat(toList(matcher.matches(3)), is(Arrays.asList(3)));
+    }
+
+    @Test
+    public void shouldCompareImagesWithoutPerceptualHashByDifferenceHash() {
+        final HashArena arena = new HashArena();
+        arena.add(1, 0L, 0L, 0L);
+        arena.add(2, 0xfL, 0L);
+        arena.add(3, -1L, -1L);
+
+        final CascadedMatcher matcher = new CascadedMatcher(arena, HashAlgorithm.PHash, MAX_PERCEPTUAL_DISTANCE,
+                HashAlgorithm.DHash, MAX_DISTANCE);
+
+        assertThat(toList(matcher.matches(1)), is(Arrays.asList(0, 1)));
+        assertThat(new HashClusterer().cluster(arena, matcher).stream()
+                .map(Arrays::toString).collect(Collectors.toList()), is(Arrays.asList("[0, 1]")));
+    }
+
+    private static List<Integer> toList(final int[] slots) {
+        return Arrays.stream(slots).boxed().collect(Collectors.toList());
+    }
+}
@@ -42,4 +42,23 @@ public class DctTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldCalculateLowFrequenciesOnly() {
+        final double[] input = new double[64];
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                input[y * 8 + x] = g[y][x];
+            }
+        }
+        final double[] output = new double[9];
+
+        new Dct(8).forward(input, output, 3);
+
+        for (int v = 0; v < 3; v++) {
+            for (int u = 0; u < 3; u++) {
+                assertThat(String.format("Should match at position (%d, %d)", v, u),
+                        output[v * 3 + u], closeTo(expectedDct[v][u], ERROR));
+            }
+        }
+    }
+}
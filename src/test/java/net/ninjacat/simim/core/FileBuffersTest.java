@@ -0,0 +1,85 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class FileBuffersTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReuseReleasedBuffers() throws IOException {
+        final FileBuffers buffers = new FileBuffers(1024 * 1024, 1024 * 1024);
+        final Path large = file("large.bin", 100_000);
+        final Path small = file("small.bin", 1000);
+
+        final ByteBuffer first = buffers.read(large);
+        assertThat(toArray(first), is(Files.readAllBytes(large)));
+        buffers.release(first);
+
+        final ByteBuffer second = buffers.read(small);
+        assertThat(second, is(sameInstance(first)));
+        assertThat(toArray(second), is(Files.readAllBytes(small)));
+    }
+
+    @Test
+    public void shouldMapLargeFiles() throws IOException {
+        final FileBuffers buffers = new FileBuffers(1024 * 1024, 10_000);
+        final Path large = file("large.bin", 100_000);
+
+        final ByteBuffer content = buffers.read(large);
+
+        assertThat(content, is(instanceOf(MappedByteBuffer.class)));
+        assertThat(toArray(content), is(Files.readAllBytes(large)));
+        assertThat(FileFingerprint.of(content), is(FileFingerprint.of(large)));
+    }
+
+    @Test
+    public void shouldDecodeImageFromBuffer() throws IOException {
+        final Path path = this.folder.getRoot().toPath().resolve("im2.jpg");
+        try (final InputStream is = getClass().getResourceAsStream("/im2.jpg")) {
+            Files.copy(is, path);
+        }
+        final FileBuffers buffers = new FileBuffers(1024 * 1024, FileBuffers.DEFAULT_MAP_THRESHOLD);
+
+        final BufferedImage decoded = ImageDecoder.decode(buffers.read(path), Integer.MAX_VALUE);
+        final BufferedImage expected = ImageIO.read(path.toFile());
+
+        assertThat(decoded.getWidth(), is(expected.getWidth()));
+        assertThat(decoded.getHeight(), is(expected.getHeight()));
+        for (int y = 0; y < expected.getHeight(); y += 7) {
+            for (int x = 0; x < expected.getWidth(); x += 7) {
+                assertThat(decoded.getRGB(x, y), is(expected.getRGB(x, y)));
+            }
+        }
+    }
+
+    private Path file(final String name, final int size) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return Files.write(this.folder.getRoot().toPath().resolve(name), content);
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
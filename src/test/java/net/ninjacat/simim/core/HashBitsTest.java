@@ -0,0 +1,44 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HashBitsTest {
+
+    @Test
+    public void distanceShouldCountDifferentBits() {
+        final Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            final BitSet first = BitSet.valueOf(new long[]{random.nextLong(), random.nextLong()});
+            final BitSet second = BitSet.valueOf(new long[]{random.nextLong(), random.nextLong()});
+            final BitSet difference = (BitSet) first.clone();
+            difference.xor(second);
+
+            final int distance = HashBits.fromBitSet(first, 128).distance(HashBits.fromBitSet(second, 128));
+
+            assertThat(distance, is(difference.cardinality()));
+        }
+    }
+
+    @Test
+    public void shouldDiscardBitsBeyondWidth() {
+        final BitSet bits = new BitSet();
+        bits.set(3);
+        bits.set(64);
+        bits.set(128);
+
+        final HashBits hash = HashBits.fromBitSet(bits, 128);
+        bits.clear(128);
+
+        assertThat(hash.size(), is(128));
+        assertThat(hash.get(3), is(true));
+        assertThat(hash.get(64), is(true));
+        assertThat(hash.toBitSet(), is(bits));
+        assertThat(hash, is(HashBits.of(8L, 1L)));
+    }
+}
@@ -0,0 +1,88 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HashClustererTest {
+
+    private static final int MAX_DISTANCE = 12;
+
+    @Test
+    public void shouldGroupChainsOfSimilarHashes() {
+        final HashArena arena = new HashArena();
+        arena.add(1, 0L, 0L);
+        arena.add(2, -1L, -1L);
+        arena.add(3, 0xffL, 0L);
+        arena.add(4, 0xffffL, 0L);
+        arena.add(5, -1L, -1L);
+
+        final List<int[]> clusters = new HashClusterer().cluster(arena, MAX_DISTANCE);
+
+        assertThat(arena.distance(0, 3) > MAX_DISTANCE, is(true));
+        assertThat(toStrings(clusters), is(Arrays.asList("[0, 2, 3]", "[1, 4]")));
+    }
+
+    @Test
+    public void shouldFindSameClustersAsSequentialSearch() {
+        final Random random = new Random(42);
+        final HashArena arena = new HashArena();
+        for (int i = 0; i < 3000; i++) {
+            if (i > 0 && random.nextInt(3) == 0) {
+                final int source = random.nextInt(arena.size());
+                arena.add(i, arena.word(source, 0) ^ 1L << random.nextInt(64), arena.word(source, 1));
+            } else {
+                arena.add(i, random.nextLong(), random.nextLong());
+            }
+        }
+
+        final List<int[]> clusters = new HashClusterer(new ForkJoinPool(4)).cluster(arena, MAX_DISTANCE);
+
+        assertThat(toStrings(clusters), is(toStrings(sequentialClusters(arena))));
+    }
+
+    @Test
+    public void emptyArenaShouldHaveNoClusters() {
+        assertThat(new HashClusterer().cluster(new HashArena(), MAX_DISTANCE), is(empty()));
+    }
+
+    private static List<int[]> sequentialClusters(final HashArena arena) {
+        final int[] component = IntStream.range(0, arena.size()).toArray();
+        for (int i = 0; i < arena.size(); i++) {
+            for (int j = i + 1; j < arena.size(); j++) {
+                if (arena.distance(i, j) <= MAX_DISTANCE && component[i] != component[j]) {
+                    final int from = Math.max(component[i], component[j]);
+                    final int to = Math.min(component[i], component[j]);
+                    for (int k = 0; k < component.length; k++) {
+                        if (component[k] == from) {
+                            component[k] = to;
+                        }
+                    }
+                }
+            }
+        }
+        final List<int[]> clusters = new ArrayList<>();
+        for (int root = 0; root < component.length; root++) {
+            final int current = root;
+            final int[] members = IntStream.range(0, component.length).filter(k -> component[k] == current).toArray();
+            if (members.length > 1) {
+                clusters.add(members);
+            }
+        }
+        return clusters;
+    }
+
+    private static List<String> toStrings(final List<int[]> clusters) {
+        return clusters.stream().map(Arrays::toString).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,137 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HashIndexSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReopenSnapshotWithAppendedAndDeletedImages() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("hashes.idx");
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.create(file)) {
+            snapshot.append(arena(new long[]{1, 10, 11}, new long[]{2, 20, 21}));
+            snapshot.append(arena(new long[]{3, 30, 31, 32}));
+            snapshot.delete(2);
+        }
+
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.open(file).get()) {
+            assertThat(snapshot.size(), is(2L));
+            assertThat(snapshot.getMaxId(), is(3L));
+            assertThat(records(snapshot), contains("1:10:11", "3:30:31:32"));
+
+            snapshot.append(arena(new long[]{4, 40, 41}));
+            assertThat(records(snapshot), contains("1:10:11", "3:30:31:32", "4:40:41"));
+        }
+    }
+
+    @Test
+    public void shouldKeepLargestLiveIdWhenNewestImageIsDeleted() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("hashes.idx");
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.create(file)) {
+            snapshot.append(arena(new long[]{1, 10, 11}, new long[]{2, 20, 21}, new long[]{3, 30, 31}));
+            snapshot.delete(3);
+            assertThat(snapshot.getMaxId(), is(2L));
+            snapshot.delete(1);
+            assertThat(snapshot.getMaxId(), is(2L));
+        }
+
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.open(file).get()) {
+            assertThat(snapshot.getMaxId(), is(2L));
+            snapshot.delete(2);
+            assertThat(snapshot.getMaxId(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldRejectCorruptSnapshot() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("hashes.idx");
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.create(file)) {
+            snapshot.append(arena(new long[]{1, 10, 11}, new long[]{2, 20, 21}));
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(HashIndexSnapshot.HEADER_SIZE + HashIndexSnapshot.RECORD_SIZE + Long.BYTES);
+            raf.writeLong(99);
+        }
+
+        assertThat(HashIndexSnapshot.open(file).isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldCompactWhenTombstonesExceedLimit() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("hashes.idx");
+        final int images = 4096;
+        // tombstones exceed 25% of records when there are more than a third of images deleted
+        final int belowLimit = images / 3;
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.create(file)) {
+            final HashArena arena = new HashArena(images);
+            for (int id = 1; id <= images; id++) {
+                arena.add(id, id * 10L, id * 10L + 1);
+            }
+            snapshot.append(arena);
+            final long[] deleted = new long[belowLimit];
+            for (int i = 0; i < belowLimit - 1; i++) {
+                deleted[i] = i + 1;
+            }
+            deleted[belowLimit - 1] = images;
+            snapshot.delete(deleted);
+            assertThat(snapshot.getRecordCount(), is((long) images + belowLimit));
+
+            snapshot.delete(belowLimit);
+
+            assertThat(snapshot.getRecordCount(), is((long) images - belowLimit - 1));
+            assertThat(snapshot.size(), is((long) images - belowLimit - 1));
+        }
+
+        try (final HashIndexSnapshot snapshot = HashIndexSnapshot.open(file).get()) {
+            assertThat(snapshot.size(), is((long) images - belowLimit - 1));
+            assertThat(snapshot.getMaxId(), is((long) images - 1));
+            final List<String> records = records(snapshot);
+            assertThat(records, hasSize(images - belowLimit - 1));
+            final long firstLive = belowLimit + 1;
+            assertThat(records.get(0), is(firstLive + ":" + firstLive * 10 + ":" + (firstLive * 10 + 1)));
+        }
+    }
+
+    /**
+     * @param images Image id, two words of difference hash and optional perceptual hash
+     */
+    private static HashArena arena(final long[]... images) {
+        final HashArena arena = new HashArena();
+        for (final long[] image : images) {
+            if (image.length == 4) {
+                arena.add(image[0], image[1], image[2], image[3]);
+            } else {
+                arena.add(image[0], image[1], image[2]);
+            }
+        }
+        return arena;
+    }
+
+    private static List<String> records(final HashIndexSnapshot snapshot) throws IOException {
+        final List<String> records = new ArrayList<>();
+        snapshot.forEach((id, algorithms, words) -> {
+            final HashArena arena = new HashArena(1);
+            arena.add(id, algorithms, words);
+            final String difference = id + ":" + arena.word(0, 0) + ":" + arena.word(0, 1);
+            records.add(arena.has(0, HashAlgorithm.PHash)
+                    ? difference + ":" + arena.word(0, HashAlgorithm.PHash, 0)
+                    : difference);
+        });
+        return records;
+    }
+}
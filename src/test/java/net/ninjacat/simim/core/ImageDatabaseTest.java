@@ -0,0 +1,280 @@
+package net.ninjacat.simim.core;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ImageDatabaseTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private Connection connection;
+    private ImageDatabase database;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + System.nanoTime();
+        this.connection = DriverManager.getConnection(this.url, "SA", "");
+        this.database = new ImageDatabase(this.connection, flyway());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.createStatement().execute("SHUTDOWN");
+    }
+
+    @Test
+    public void shouldStoreThumbnailsSeparately() throws IOException, SQLException {
+        final SimImage image = SimImage.fromPath(image("first.png", 0x203040));
+
+        this.database.insertImages(Collections.singletonList(image));
+
+        final List<SimImage> loaded = this.database.loadByHash(image.getSignature());
+        assertThat(loaded, hasSize(1));
+        assertThat(loaded.get(0).getPath(), is(image.getPath()));
+        assertThat(loaded.get(0).getSignature(HashAlgorithm.PHash), is(image.getSignature(HashAlgorithm.PHash)));
+        assertThat(count("thumbnail"), is(1));
+        assertThat(loaded.get(0).getThumbnail().isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldGenerateThumbnailFromFileWhenItWasNotStored() throws IOException, SQLException {
+        final Path path = image("first.png", 0x203040);
+        final SimImage image = SimImage.fromPath(path);
+
+        this.database.insertImages(Collections.singletonList(image), false);
+
+        assertThat(count("thumbnail"), is(0));
+        final SimImage loaded = this.database.loadByPath(path).get();
+        assertThat(loaded.getThumbnail().get().getWidth(), is(image.getThumbnail().get().getWidth()));
+
+        Files.delete(path);
+        assertThat(this.database.loadByPath(path).get().getThumbnail().isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldDeleteThumbnailWithImage() throws IOException, SQLException {
+        final SimImage first = SimImage.fromPath(image("first.png", 0x203040));
+        final SimImage second = SimImage.fromPath(image("second.png", 0x808080));
+        this.database.insertImages(Arrays.asList(first, second));
+
+        this.database.delete(first.getPath());
+
+        assertThat(count("image"), is(1));
+        assertThat(count("thumbnail"), is(1));
+    }
+
+    @Test
+    public void shouldReplaceImagesWithSamePathInOneTransaction() throws IOException, SQLException {
+        final Path snapshotFile = this.folder.getRoot().toPath().resolve("hashes.idx");
+        final ImageDatabase indexed = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        final SimImage first = SimImage.fromPath(image("first.png", 0x203040));
+        final SimImage second = SimImage.fromPath(image("second.png", 0x808080));
+        indexed.insertImages(Arrays.asList(first, second));
+        final SimImage edited = SimImage.fromPath(image("first.png", 0x102030));
+
+        indexed.replaceImages(Arrays.asList(edited, storedImage(1)), false);
+
+        assertThat(count("image"), is(3));
+        assertThat(count("thumbnail"), is(1));
+        assertThat(indexed.loadHashes(), containsInAnyOrder(edited.getSignature(), second.getSignature(),
+                storedImage(1).getSignature()));
+        assertThat(indexed.loadByPath(first.getPath()).get().getSignature(), is(edited.getSignature()));
+        final ImageDatabase reopened = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        assertThat(reopened.loadHashes(), hasSize(3));
+    }
+
+    @Test
+    public void shouldRebuildStaleHashSnapshot() throws IOException, SQLException {
+        final Path snapshotFile = this.folder.getRoot().toPath().resolve("hashes.idx");
+        final SimImage first = SimImage.fromPath(image("first.png", 0x203040));
+        final SimImage second = SimImage.fromPath(image("second.png", 0x808080));
+        final ImageDatabase indexed = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        indexed.insertImages(Arrays.asList(first, second), false);
+        indexed.delete(first.getPath());
+        assertThat(indexed.loadHashes(), contains(second.getSignature()));
+
+        this.database.insertImages(Collections.singletonList(first), false);
+
+        final ImageDatabase reopened = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        assertThat(reopened.loadHashes(), containsInAnyOrder(first.getSignature(), second.getSignature()));
+    }
+
+    @Test
+    public void shouldReuseHashSnapshotAfterNewestImageIsDeleted() throws IOException, SQLException {
+        final Path snapshotFile = this.folder.getRoot().toPath().resolve("hashes.idx");
+        final SimImage first = SimImage.fromPath(image("first.png", 0x203040));
+        final SimImage second = SimImage.fromPath(image("second.png", 0x808080));
+        final ImageDatabase indexed = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        indexed.insertImages(Arrays.asList(first, second), false);
+        indexed.delete(second.getPath());
+
+        final ImageDatabase reopened = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+
+        assertThat(reopened.loadHashes(), contains(first.getSignature()));
+        // rebuilt snapshot would have only one record instead of two images and a tombstone
+        assertThat(Files.size(snapshotFile),
+                is((long) HashIndexSnapshot.HEADER_SIZE + 3 * HashIndexSnapshot.RECORD_SIZE));
+    }
+
+    @Test
+    public void shouldDeleteManyPathsInBatches() throws IOException, SQLException {
+        final Path snapshotFile = this.folder.getRoot().toPath().resolve("hashes.idx");
+        final ImageDatabase indexed = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        final List<SimImage> images = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            images.add(storedImage(i));
+        }
+        indexed.insertImages(images, false);
+        final List<Path> deleted = images.subList(1, 650).stream().map(SimImage::getPath).collect(Collectors.toList());
+        deleted.add(Paths.get("/images/unknown.jpg"));
+
+        assertThat(indexed.deleteAll(deleted), is(649));
+        assertThat(indexed.deleteAll(Collections.emptyList()), is(0));
+
+        assertThat(count("image"), is(51));
+        assertThat(indexed.loadHashes(), hasSize(51));
+        final ImageDatabase reopened = new ImageDatabase(this.connection, flyway(),
+                ThumbnailCache.DEFAULT_MAX_BYTES, snapshotFile);
+        assertThat(reopened.loadHashes(), hasSize(51));
+        assertThat(reopened.loadPaths(), hasSize(51));
+    }
+
+    @Test
+    public void shouldLoadImagesByIdsInGivenOrder() throws SQLException {
+        final List<SimImage> images = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            images.add(storedImage(i));
+        }
+        this.database.insertImages(images, false);
+        final List<Long> stored = new ArrayList<>();
+        try (final ResultSet resultSet = this.connection.createStatement()
+                .executeQuery("select id from image order by id")) {
+            while (resultSet.next()) {
+                stored.add(resultSet.getLong(1));
+            }
+        }
+
+        final long[] ids = new long[71];
+        for (int i = 0; i < 70; i++) {
+            ids[i] = stored.get(99 - i);
+        }
+        ids[70] = stored.get(99) + 1000;
+        final List<SimImage> loaded = this.database.loadByIds(ids);
+
+        assertThat(loaded, hasSize(70));
+        for (int i = 0; i < 70; i++) {
+            assertThat(loaded.get(i).getPath(), is(Paths.get("/images", (99 - i) + ".jpg")));
+        }
+        assertThat(this.database.loadByIds(new long[0]), hasSize(0));
+    }
+
+    @Test
+    public void shouldInsertAndLookUpConcurrentlyThroughPool() throws Exception {
+        final int threads = 8;
+        final int imagesPerThread = 50;
+        final ConnectionPool pool = ConnectionPool.of(this.url, "SA", "", 4);
+        final ImageDatabase pooled = new ImageDatabase(pool, flyway(), ThumbnailCache.DEFAULT_MAX_BYTES, null);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int first = thread * imagesPerThread;
+                results.add(executor.submit(() -> {
+                    for (int i = first; i < first + imagesPerThread; i++) {
+                        final SimImage image = storedImage(i);
+                        pooled.insertImages(Collections.singletonList(image), false);
+                        assertThat(pooled.exists(image.getPath()), is(true));
+                        assertThat(pooled.loadByHash(image.getSignature()), hasSize(1));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+            pool.close();
+        }
+
+        assertThat(count("image"), is(threads * imagesPerThread));
+        try (final ResultSet resultSet = this.connection.createStatement().executeQuery(
+                "select property_value from information_schema.system_properties where property_name = 'hsqldb.tx'")) {
+            resultSet.next();
+            assertThat(resultSet.getString(1), is("mvcc"));
+        }
+    }
+
+    private static SimImage storedImage(final int index) {
+        return new SimImage(Paths.get("/images", index + ".jpg"),
+                Collections.singletonList(new ImageHash(HashBits.of(index, ~index))), FileStamp.UNKNOWN,
+                () -> CompletableFuture.completedFuture(Optional.empty()));
+    }
+
+    private Flyway flyway() {
+        final Flyway flyway = new Flyway();
+        flyway.setDataSource(this.url, "SA", "");
+        return flyway;
+    }
+
+    private int count(final String table) throws SQLException {
+        try (final ResultSet resultSet = this.connection.createStatement()
+                .executeQuery("select count(*) from " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private Path image(final String name, final int color) throws IOException {
+        final File file = new File(this.folder.getRoot(), name);
+        final BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x < y ? color : ~color & 0xffffff);
+            }
+        }
+        ImageIO.write(image, "png", file);
+        return file.toPath();
+    }
+}
@@ -0,0 +1,78 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    public void shouldCalculateApproximatePercentiles() {
+        final LatencyTimer timer = new Metrics().timer("test");
+        for (int i = 0; i < 98; i++) {
+            timer.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        timer.record(TimeUnit.MILLISECONDS.toNanos(10));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(20));
+
+        final LatencySnapshot snapshot = timer.snapshot();
+        assertThat(snapshot.getCount(), is(100L));
+        assertThat(snapshot.getMeanMicros(), closeTo(398, 0.1));
+        // buckets are powers of two nanoseconds, so percentiles are rounded up to the next one
+        assertThat(snapshot.getP50Micros(), is(131.072));
+        assertThat(snapshot.getP99Micros(), is(16777.216));
+        assertThat(snapshot.getMaxMicros(), is(20000.0));
+    }
+
+    @Test
+    public void shouldReportOperationsSinceEarlierSnapshot() {
+        final LatencyTimer timer = new Metrics().timer("test");
+        timer.record(1000);
+        final LatencySnapshot earlier = timer.snapshot();
+        timer.record(3000);
+        timer.record(5000);
+
+        final LatencySnapshot interval = timer.snapshot().since(earlier);
+        assertThat(interval.getCount(), is(2L));
+        assertThat(interval.getMeanMicros(), is(4.0));
+    }
+
+    @Test
+    public void shouldCountFailuresByCauseOfApplicationExceptions() {
+        final Metrics metrics = new Metrics();
+        metrics.failed("scan.read", new IOException());
+        metrics.failed("scan.read", new ImageProcessingException("Failed", new IOException()));
+        metrics.failed("db.insert", new ImageDatabaseException("Failed", new SQLException()));
+        metrics.failed("db.insert", new IllegalStateException());
+
+        assertThat(metrics.getFailures(), hasEntry("scan.read:IOException", 2L));
+        assertThat(metrics.getFailures(), hasEntry("db.insert:SQLException", 1L));
+        assertThat(metrics.getFailures(), hasEntry("db.insert:IllegalStateException", 1L));
+    }
+
+    @Test
+    public void shouldExposeTimersThroughJmx() throws Exception {
+        final Metrics metrics = Metrics.global();
+        metrics.registerMBean();
+        metrics.registerMBean();
+        metrics.timer("test.jmx").record(TimeUnit.MICROSECONDS.toNanos(8));
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final TabularData timers = (TabularData) server.getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Timers");
+        final CompositeData timer = (CompositeData) timers.get(new Object[]{"test.jmx"}).get("value");
+        assertThat(timer.get("count"), is(1L));
+        assertThat(timer.get("maxMicros"), is(8.0));
+    }
+}
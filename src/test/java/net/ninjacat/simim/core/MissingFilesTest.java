@@ -0,0 +1,61 @@
+package net.ninjacat.simim.core;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MissingFilesTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldFindMissingFilesInListedAndCheckedDirectories() throws IOException {
+        final Path listed = this.folder.newFolder("listed").toPath();
+        final List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < MissingFiles.MIN_FILES_TO_LIST + 2; i++) {
+            paths.add(Files.createFile(listed.resolve(i + ".jpg")));
+        }
+        Files.delete(paths.get(1));
+        Files.delete(paths.get(4));
+        final Path single = this.folder.newFile("single.jpg").toPath();
+        final Path deletedSingle = this.folder.getRoot().toPath().resolve("deleted.jpg");
+        final Path gone = this.folder.getRoot().toPath().resolve("gone");
+        paths.add(single);
+        paths.add(deletedSingle);
+        for (int i = 0; i < MissingFiles.MIN_FILES_TO_LIST; i++) {
+            paths.add(gone.resolve(i + ".jpg"));
+        }
+
+        final List<Path> missing = MissingFiles.find(paths, ReaderMode.PLATFORM, 2);
+
+        final List<Path> expected = new ArrayList<>(paths.subList(paths.size() - MissingFiles.MIN_FILES_TO_LIST,
+                paths.size()));
+        expected.add(paths.get(1));
+        expected.add(paths.get(4));
+        expected.add(deletedSingle);
+        assertThat(missing, containsInAnyOrder(expected.toArray()));
+    }
+
+    @Test
+    public void shouldFindNothingWhenAllFilesExist() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < MissingFiles.MIN_FILES_TO_LIST; i++) {
+            paths.add(this.folder.newFile(i + ".jpg").toPath());
+        }
+
+        assertThat(MissingFiles.find(paths, MoreExecutors.directExecutor()), is(empty()));
+    }
+}
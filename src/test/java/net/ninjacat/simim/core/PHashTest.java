@@ -0,0 +1,54 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.RescaleOp;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class PHashTest {
+
+    @Test
+    public void signatureShouldHaveHalfOfBitsSet() throws IOException {
+        final HashBits signature = HashAlgorithm.PHash.signature(image());
+
+        assertThat(signature.size(), is(64));
+        assertThat(Long.bitCount(signature.word(0)), is(32));
+    }
+
+    @Test
+    public void scaledAndBrightenedImageShouldHaveSimilarSignature() throws IOException {
+        final BufferedImage image = image();
+        final BufferedImage scaled = Resampler.scale(image, image.getWidth() / 3, image.getHeight() / 3);
+        final BufferedImage brightened = new RescaleOp(1.2f, 10, null).filter(scaled, null);
+
+        final HashBits original = HashAlgorithm.PHash.signature(image);
+
+        assertThat(original.distance(HashAlgorithm.PHash.signature(scaled)), is(lessThanOrEqualTo(4)));
+        assertThat(original.distance(HashAlgorithm.PHash.signature(brightened)), is(lessThanOrEqualTo(6)));
+    }
+
+    @Test
+    public void flippedImageShouldHaveDifferentSignature() throws IOException {
+        final BufferedImage image = image();
+        final BufferedImage flipped = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                flipped.setRGB(x, image.getHeight() - y - 1, image.getRGB(x, y));
+            }
+        }
+
+        assertThat(HashAlgorithm.PHash.signature(image).distance(HashAlgorithm.PHash.signature(flipped)),
+                is(greaterThan(16)));
+    }
+
+    private BufferedImage image() throws IOException {
+        return ImageIO.read(getClass().getResourceAsStream("/im2.jpg"));
+    }
+}
@@ -0,0 +1,130 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class ResamplerTest {
+
+    private static final int MAX_LUMINANCE_ERROR = 1;
+
+    @Test
+    public void grayscaleShouldMatchSmoothScaling() throws IOException {
+        final BufferedImage image = ImageIO.read(getClass().getResourceAsStream("/im2.jpg"));
+
+        assertMatchesSmoothScaling(image, 9, 8);
+        assertMatchesSmoothScaling(image, 32, 32);
+        assertMatchesSmoothScaling(noise(641, 479, BufferedImage.TYPE_INT_RGB), 9, 8);
+        assertMatchesSmoothScaling(noise(300, 200, BufferedImage.TYPE_3BYTE_BGR), 32, 32);
+        assertMatchesSmoothScaling(noise(100, 333, BufferedImage.TYPE_INT_ARGB), 9, 8);
+    }
+
+    @Test
+    public void dHashShouldMatchSmoothScaling() throws IOException {
+        final BufferedImage image = ImageIO.read(getClass().getResourceAsStream("/im2.jpg"));
+
+        assertThat(HashAlgorithm.DHash.signature(image).distance(smoothDHash(image)), is(lessThanOrEqualTo(2)));
+    }
+
+    @Test
+    public void grayscaleImageShouldBeUsedAsLuminance() {
+        final byte[] luminance = {10, 20, 30, 40, (byte) 200, (byte) 220, (byte) 240, (byte) 255};
+        final BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setDataElements(0, 0, 4, 2, luminance);
+
+        final byte[] scaled = Resampler.grayscale(image, 2, 1);
+
+        assertThat(scaled[0] & 0xff, is(113));
+        assertThat(scaled[1] & 0xff, is(141));
+    }
+
+    @Test
+    public void scaleShouldAverageColors() {
+        final BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xff0000);
+        image.setRGB(1, 0, 0xff0000);
+        image.setRGB(0, 1, 0x0000ff);
+        image.setRGB(1, 1, 0x0000ff);
+
+        final BufferedImage scaled = Resampler.scale(image, 2, 1);
+
+        assertThat(scaled.getRGB(0, 0) & 0xffffff, is(0x800080));
+        assertThat(scaled.getRGB(1, 0) & 0xffffff, is(0));
+    }
+
+    private static void assertMatchesSmoothScaling(final BufferedImage image, final int width, final int height) {
+        final byte[] actual = Resampler.grayscale(image, width, height);
+        final BufferedImage expected = toGrayscale(
+                image.getScaledInstance(width, height, BufferedImage.SCALE_SMOOTH));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int expectedLuminance = expected.getRaster().getSample(x, y, 0);
+                final int actualLuminance = actual[y * width + x] & 0xff;
+                assertThat(String.format("Luminance at (%d, %d)", x, y),
+                        Math.abs(expectedLuminance - actualLuminance), is(lessThanOrEqualTo(MAX_LUMINANCE_ERROR)));
+            }
+        }
+    }
+
+    /**
+     * DHash as calculated with {@code getScaledInstance(SCALE_SMOOTH)}
+     */
+    private static HashBits smoothDHash(final BufferedImage image) {
+        final BufferedImage thumbnail = toGrayscale(
+                image.getScaledInstance(9, 8, BufferedImage.SCALE_SMOOTH));
+        final long[] gradient = new long[2];
+        int bit = 64;
+        for (int a = 0; a < 8; a++) {
+            for (int b = 1; b < 8; b++) {
+                set(gradient, bit, Integer.compareUnsigned(thumbnail.getRGB(b, a), thumbnail.getRGB(b - 1, a)) >= 0);
+                set(gradient, bit * 2, Integer.compareUnsigned(thumbnail.getRGB(a, b), thumbnail.getRGB(a, b - 1)) >= 0);
+                bit -= 1;
+            }
+        }
+        return HashBits.of(gradient);
+    }
+
+    /**
+     * Draws scaled image the way images were converted before {@link Resampler} replaced {@code getScaledInstance}
+     */
+    private static BufferedImage toGrayscale(final Image image) {
+        final BufferedImage converted =
+                new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    private static void set(final long[] words, final int bit, final boolean value) {
+        if (bit < 128) {
+            if (value) {
+                words[bit / 64] |= 1L << bit;
+            } else {
+                words[bit / 64] &= ~(1L << bit);
+            }
+        }
+    }
+
+    private static BufferedImage noise(final int width, final int height, final int type) {
+        final Random random = new Random(width * height);
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int base = (x * 255 / width + y * 255 / height) / 2;
+                final int value = Math.min(255, base + random.nextInt(32));
+                image.setRGB(x, y, value << 16 | (255 - value) << 8 | random.nextInt(256));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,140 @@
+package net.ninjacat.simim.core;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class ScanPipelineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldLoadAllImagesAndReportProgress() throws IOException {
+        final Path first = image("first.png", 0x203040);
+        final Path second = image("nested/second.png", 0x808080);
+        final Path skipped = image("skipped.png", 0xffffff);
+        Files.write(this.folder.getRoot().toPath().resolve("broken.jpg"), new byte[]{1, 2, 3});
+        Files.write(this.folder.getRoot().toPath().resolve("notes.txt"), new byte[]{1, 2, 3});
+
+        final Set<Path> loading = ConcurrentHashMap.newKeySet();
+        final AtomicReference<ScanProgress> progress = new AtomicReference<>();
+        final ScanPipeline pipeline = new ScanPipeline(2, 2, Duration.ofMillis(10), new ScanListener() {
+            @Override
+            public void imageLoading(final Path path) {
+                loading.add(path);
+            }
+
+            @Override
+            public void progress(final ScanProgress scanProgress) {
+                progress.set(scanProgress);
+            }
+        });
+
+        final List<SimImage> images = pipeline.read(this.folder.getRoot().toPath(), path -> {
+            try {
+                return path.equals(skipped) ? Optional.empty() : Optional.of(FileStamp.of(path));
+            } catch (final IOException e) {
+                throw new ImageProcessingException("Failed to read stamp", e);
+            }
+        });
+
+        assertThat(images.stream().map(SimImage::getPath).collect(Collectors.toList()),
+                containsInAnyOrder(first, second));
+        assertThat(images.get(0).getFileStamp().getFingerprint().isPresent(), is(true));
+        assertThat(loading.size(), is(3));
+
+        final ScanProgress last = progress.get();
+        assertThat(last, is(notNullValue()));
+        assertThat(last.getProcessed(ScanProgress.Stage.WALK), is(4L));
+        assertThat(last.getProcessed(ScanProgress.Stage.READ), is(3L));
+        assertThat(last.getProcessed(ScanProgress.Stage.HASH), is(2L));
+        assertThat(last.getSkipped(), is(1L));
+        assertThat(last.getFailed(), is(1L));
+        assertThat(last.getQueued(ScanProgress.Stage.HASH), is(0));
+    }
+
+    @Test
+    public void shouldReadFilesWithVirtualThreads() throws IOException {
+        final Path first = image("first.png", 0x203040);
+        final Path second = image("second.png", 0x808080);
+        final ScanPipeline pipeline =
+                new ScanPipeline(ReaderMode.VIRTUAL, 100, 2, Duration.ofSeconds(1), ScanListener.NONE);
+
+        final List<SimImage> images = pipeline.read(this.folder.getRoot().toPath(), path -> {
+            try {
+                return Optional.of(FileStamp.of(path));
+            } catch (final IOException e) {
+                throw new ImageProcessingException("Failed to read stamp", e);
+            }
+        });
+
+        assertThat(images.stream().map(SimImage::getPath).collect(Collectors.toList()),
+                containsInAnyOrder(first, second));
+    }
+
+    @Test
+    public void shouldStoreImagesWithoutKeepingThem() throws IOException, SQLException {
+        final Path first = image("first.png", 0x203040);
+        image("second.png", 0x808080);
+        final String url = "jdbc:hsqldb:mem:" + getClass().getSimpleName() + System.nanoTime();
+        final Connection connection = DriverManager.getConnection(url, "SA", "");
+        try {
+            final Flyway flyway = new Flyway();
+            flyway.setDataSource(url, "SA", "");
+            final ImageDatabase database = new ImageDatabase(connection, flyway);
+            final ScanPipeline pipeline = new ScanPipeline(2, 2, Duration.ofSeconds(1), ScanListener.NONE);
+
+            final long stored;
+            try (final BatchImageWriter writer = new BatchImageWriter(database, 1, Duration.ofMillis(10), false)) {
+                stored = pipeline.store(this.folder.getRoot().toPath(), path -> Optional.of(FileStamp.UNKNOWN),
+                        writer);
+            }
+
+            assertThat(stored, is(2L));
+            assertThat(database.loadPaths(), hasSize(2));
+            final SimImage image = SimImage.fromPath(first);
+            image.releaseImage();
+            assertThat(image.getThumbnail().isPresent(), is(true));
+        } finally {
+            connection.createStatement().execute("SHUTDOWN");
+        }
+    }
+
+    private Path image(final String name, final int color) throws IOException {
+        final File file = new File(this.folder.getRoot(), name);
+        file.getParentFile().mkdirs();
+        final BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x < y ? color : ~color & 0xffffff);
+            }
+        }
+        ImageIO.write(image, "png", file);
+        return file.toPath();
+    }
+}
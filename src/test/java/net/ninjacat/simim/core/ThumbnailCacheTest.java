@@ -0,0 +1,81 @@
+package net.ninjacat.simim.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class ThumbnailCacheTest {
+
+    private static final int THUMBNAIL_BYTES = 100 * 100 * 4;
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        final AtomicInteger loads = new AtomicInteger();
+        final ThumbnailCache cache = new ThumbnailCache(id -> {
+            loads.incrementAndGet();
+            return Optional.of(thumbnail());
+        }, THUMBNAIL_BYTES * 10L, Runnable::run);
+
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+
+        assertThat(loads.get(), is(2));
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(2L));
+    }
+
+    @Test
+    public void shouldEvictWhenPixelBytesExceedLimit() {
+        final ThumbnailCache cache = new ThumbnailCache(id -> Optional.of(thumbnail()), THUMBNAIL_BYTES * 3L,
+                Runnable::run);
+
+        for (long id = 0; id < 10; id++) {
+            cache.get(id);
+        }
+
+        assertThat(cache.size(), is(lessThanOrEqualTo(3L)));
+        assertThat(cache.stats().evictionCount(), is(10L - cache.size()));
+    }
+
+    @Test
+    public void shouldLoadMissingThumbnailsAsynchronously() {
+        final AtomicInteger loads = new AtomicInteger();
+        final ThumbnailCache cache = new ThumbnailCache(id -> {
+            loads.incrementAndGet();
+            return id == 1 ? Optional.of(thumbnail()) : Optional.empty();
+        }, THUMBNAIL_BYTES * 10L);
+
+        assertThat(cache.getAsync(1).join().isPresent(), is(true));
+        assertThat(cache.getAsync(1).isDone(), is(true));
+        assertThat(cache.getAsync(2).join().isPresent(), is(false));
+        assertThat(loads.get(), is(2));
+        assertThat(cache.stats().hitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldShareLoaderThreadsBetweenCaches() {
+        final Set<String> loaderThreads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 20; i++) {
+            final ThumbnailCache cache = new ThumbnailCache(id -> {
+                loaderThreads.add(Thread.currentThread().getName());
+                return Optional.empty();
+            }, THUMBNAIL_BYTES);
+            cache.getAsync(i).join();
+        }
+
+        assertThat(loaderThreads.size(), is(lessThanOrEqualTo(2)));
+    }
+
+    private static BufferedImage thumbnail() {
+        return new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+    }
+}